@@ -2,7 +2,7 @@ package io.github.drakonkinst.contextualdialogue;
 
 import io.github.drakonkinst.commonutil.JsonUtils;
 import io.github.drakonkinst.commonutil.MyLogger;
-import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.context.ContextSet;
 import io.github.drakonkinst.contextualdialogue.function.FunctionLookup;
 import io.github.drakonkinst.contextualdialogue.json.ContextParser;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
@@ -13,7 +13,6 @@ import io.github.drakonkinst.contextualdialogue.speech.text.TextToken;
 import java.io.FileNotFoundException;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 
@@ -49,26 +48,34 @@ public class Main {
         long end = System.currentTimeMillis();
         MyLogger.info("Took " + (end - start) + "ms to load speechbanks");
 
-        Map<String, ContextTable> contexts;
+        ContextSet contexts;
         try {
              contexts = ContextParser.parseContexts(JsonUtils.readExternalFile(contextPath).getAsJsonObject());
         } catch (FileNotFoundException e) {
             MyLogger.severe("Path " + contextPath + " does not exist");
             return;
         }
-        for(Map.Entry<String, ContextTable> entry : contexts.entrySet()) {
-            MyLogger.finest("CONTEXT TABLE " + entry.getKey());
-            MyLogger.finest(entry.getValue().toString());
-        }
+        contexts.forEach((tableName, table) -> {
+            MyLogger.finest("CONTEXT TABLE " + tableName);
+            MyLogger.finest(table.toString());
+        });
 
         MyLogger.info();
         SpeechbankDatabase database = SpeechbankDatabase.getInstance();
         start = System.currentTimeMillis();
         Set<String> generated = new HashSet<>();
         int numRepeats = 0;
+        long numTableProbes = 0;
+        long numRulesChecked = 0;
+        long numCriteriaEvaluated = 0;
+        long numCriteriaMemoized = 0;
         for(int i = 0; i < howMany; ++i) {
             SpeechQuery query = new SpeechQuery(contexts);
             SpeechResult result = database.generateLine(group, category, query);
+            numTableProbes += query.getNumTableProbes();
+            numRulesChecked += query.getNumRulesChecked();
+            numCriteriaEvaluated += query.getNumCriteriaEvaluated();
+            numCriteriaMemoized += query.getNumCriteriaMemoized();
 
             if(printLines) {
                 if(result == null) {
@@ -97,8 +104,13 @@ public class Main {
 
         if(showStats) {
             MyLogger.info("Ran into " + numRepeats + " repeats");
-            MyLogger.info("This query checks a maximum of " + Statistics.countNumCheckedRules(group, category, contexts) + " rules");
+            MyLogger.info("This query checks a maximum of " + Statistics.countNumCheckedRules(group, category, contexts) + " rules"
+                    + " out of " + Statistics.countNumRules(group, category) + " in the category");
             MyLogger.info("And has approximately " + Statistics.countNumVariations(group, category, contexts) + " possible variations");
+            if(numRulesChecked > 0) {
+                MyLogger.info("Context lookups made " + String.format("%.2f", (double) numTableProbes / numRulesChecked) + " table probes per rule checked");
+            }
+            MyLogger.info("Evaluated " + numCriteriaEvaluated + " criteria, and reused " + numCriteriaMemoized + " more results from earlier in the same query");
         }
     }
 
@@ -1,8 +1,7 @@
 package io.github.drakonkinst.contextualdialogue;
 
-import io.github.drakonkinst.contextualdialogue.context.ContextTable;
-import io.github.drakonkinst.contextualdialogue.rule.CriterionFail;
-import io.github.drakonkinst.contextualdialogue.rule.Rule;
+import io.github.drakonkinst.contextualdialogue.context.ContextSet;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 import io.github.drakonkinst.contextualdialogue.speech.Speechbank;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechbankDatabase;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechbankEntry;
@@ -11,7 +10,6 @@ import io.github.drakonkinst.contextualdialogue.token.TokenGroup;
 import io.github.drakonkinst.contextualdialogue.token.TokenList;
 
 import java.util.List;
-import java.util.Map;
 
 public final class Statistics {
     private Statistics() {}
@@ -39,15 +37,16 @@ public final class Statistics {
         return variations;
     }
 
-    public static long countNumVariations(String groupName, String category, Map<String, ContextTable> contexts) {
+    public static long countNumVariations(String groupName, String category, ContextSet contexts) {
         long variations = 0;
         Speechbank speechbank = SpeechbankDatabase.getInstance().getSpeechbank(groupName);
         if(speechbank == null) {
             return 0;
         }
         SpeechbankEntry[] entries = speechbank.getEntriesFor(category);
+        SpeechQuery query = new SpeechQuery(contexts);
         for(SpeechbankEntry entry : entries) {
-            boolean couldMatch = Speechbank.match(entry.getRule(), contexts, true);
+            boolean couldMatch = Speechbank.match(entry.getRule(), query, true);
             if(couldMatch) {
                 variations += countNumVariations(entry);
             }
@@ -55,37 +54,28 @@ public final class Statistics {
         return variations;
     }
 
-    public static long countNumCheckedRules(String groupName, String category, Map<String, ContextTable> contexts) {
-        long rulesChecked = 0;
-        Speechbank speechbank = SpeechbankDatabase.getInstance().getSpeechbank(groupName);
+    // Counts the rules checked in the database's current evaluation mode, assuming every fail chance passes
+    public static long countNumCheckedRules(String groupName, String category, ContextSet contexts) {
+        SpeechbankDatabase database = SpeechbankDatabase.getInstance();
+        Speechbank speechbank = database.getSpeechbank(groupName);
         if(speechbank == null) {
             return 0;
         }
-        SpeechbankEntry[] entries = speechbank.getEntriesFor(category);
-        int highestMatchingPriority = -999;
-        for(SpeechbankEntry entry : entries) {
-            int priority = entry.getRule().getPriority();
-            if(priority < highestMatchingPriority) {
-                break;
-            }
-            ++rulesChecked;
-            boolean couldMatch = Speechbank.match(entry.getRule(), contexts, false);
-            if(couldMatch && !containsFailCriterion(entry.getRule())) {
-                // Definitely matches, this can cause an early stop
-                if(priority > highestMatchingPriority) {
-                    highestMatchingPriority = priority;
-                }
-            }
-        }
-        return rulesChecked;
+        return speechbank.countMaxCheckedRules(category, new SpeechQuery(contexts), database.getEvaluationMode());
     }
 
-    private static boolean containsFailCriterion(Rule rule) {
-        for(int i = 0; i < rule.getSize(); ++i) {
-            if(rule.getTupleAt(i).getCriterion() instanceof CriterionFail) {
-                return true;
+    // Returns the number of entries in the category that have lines or actions, which is how many rules a full scan could check
+    public static long countNumRules(String groupName, String category) {
+        Speechbank speechbank = SpeechbankDatabase.getInstance().getSpeechbank(groupName);
+        if(speechbank == null) {
+            return 0;
+        }
+        long numRules = 0;
+        for(SpeechbankEntry entry : speechbank.getEntriesFor(category)) {
+            if(!entry.isEmpty()) {
+                ++numRules;
             }
         }
-        return false;
+        return numRules;
     }
 }
@@ -1,21 +1,49 @@
 package io.github.drakonkinst.contextualdialogue;
 
 import io.github.drakonkinst.commonutil.MyLogger;
+import io.github.drakonkinst.contextualdialogue.context.ArchetypeContextTable;
+import io.github.drakonkinst.contextualdialogue.context.ConcurrentContextTable;
+import io.github.drakonkinst.contextualdialogue.context.ContextSet;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.context.ExpiryWheel;
+import io.github.drakonkinst.contextualdialogue.context.OverlayContextTable;
+import io.github.drakonkinst.contextualdialogue.context.SharedContextTable;
 import io.github.drakonkinst.contextualdialogue.exception.SpeechException;
 import io.github.drakonkinst.contextualdialogue.exception.SymbolException;
 import io.github.drakonkinst.contextualdialogue.exception.TokenizeException;
 import io.github.drakonkinst.contextualdialogue.function.FunctionLookup;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionExact;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionExist;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionPool;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionProfiler;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionStatic;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionTuple;
+import io.github.drakonkinst.contextualdialogue.rule.Rule;
+import io.github.drakonkinst.contextualdialogue.speech.EvaluationMode;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
+import io.github.drakonkinst.contextualdialogue.speech.Speechbank;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechbankEntry;
 import io.github.drakonkinst.contextualdialogue.token.Token;
 import io.github.drakonkinst.contextualdialogue.token.TokenContext;
 import io.github.drakonkinst.contextualdialogue.token.TokenInt;
 import io.github.drakonkinst.contextualdialogue.token.TokenList;
 import io.github.drakonkinst.contextualdialogue.token.TokenString;
+import io.github.drakonkinst.contextualdialogue.util.FrozenStringTable;
+import io.github.drakonkinst.contextualdialogue.util.KeyCache;
+import io.github.drakonkinst.contextualdialogue.util.StringCache;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.function.IntFunction;
 import java.util.logging.Level;
 
 public class Tester {
@@ -52,6 +80,25 @@ public class Tester {
         int howManyGenerate = 10000;
         testGenerateLarge(complex1, howManyGenerate);
         testGenerateLarge(complex2, howManyGenerate);
+
+        testContextTableLarge(10000, 32, 100);
+        testArchetypeContextTable(10000, 10, 2);
+        testCompactLists(10000, 4);
+        testCompactLists(1000, 200);
+        testSharedContextTable(4, 32, 1000000);
+        testConcurrentContextTable(4, 4, 1000000);
+        testOverlayContextTable(32, 1000000);
+        testExpiringFacts(100000, 10000);
+        testExpiringOverrides(10000, 100);
+        for(int numThreads = 1; numThreads <= 8; numThreads <<= 1) {
+            testStringCacheContention(numThreads, 4096, 1000000);
+        }
+        testFrozenVocabulary(200000);
+        testStringEviction(10000, 20);
+        testCategoryIndex(2000, 32, 2000);
+        testCriterionPool(100000, 64);
+        testCriterionMemo(3000, 64, 1000);
+        testCriterionOrdering(3000, 1000);
         //*/
     }
 
@@ -73,17 +120,16 @@ public class Tester {
         return symbols;
     }
 
-    private static Map<String, ContextTable> getTestContexts() {
-        Map<String, ContextTable> contexts = new HashMap<>();
-        contexts.put("listener", new ContextTable()
-                .set("name", "Drakonkinst"));
-        contexts.put("speaker", new ContextTable()
-                .set("name", "Bilbo")
-                .set("age", 111));
-        contexts.put("structure", new ContextTable()
-                .set("farmer", "Farmer Maggot")
-                .set("farmer.gender", "male"));
-        return contexts;
+    private static ContextSet getTestContexts() {
+        return new ContextSet()
+                .put(ContextSet.LISTENER, new ContextTable()
+                        .set("name", "Drakonkinst"))
+                .put(ContextSet.SPEAKER, new ContextTable()
+                        .set("name", "Bilbo")
+                        .set("age", 111))
+                .put(ContextSet.STRUCTURE, new ContextTable()
+                        .set("farmer", "Farmer Maggot")
+                        .set("farmer.gender", "male"));
     }
 
     private static void testTokenizeLarge(String str, int count) throws TokenizeException, SymbolException {
@@ -101,7 +147,7 @@ public class Tester {
 
     private static void testGenerateLarge(String str, int count) throws TokenizeException, SymbolException {
         Map<String, Token> symbols = getTestSymbols();
-        Map<String, ContextTable> contexts = getTestContexts();
+        ContextSet contexts = getTestContexts();
         SpeechQuery query = new SpeechQuery(contexts, functionLookup);
         Token token = Tokenizer.tokenize(str);
         SymbolChecker.test(token, symbols, functionLookup);
@@ -119,9 +165,681 @@ public class Tester {
         MyLogger.info("Took " + (end - start) + "ms to generate \"" + str + "\" " + count + " times");
     }
 
+    private static void testContextTableLarge(int numTables, int numKeys, int iterations) {
+        String[] keys = new String[numKeys];
+        for(int i = 0; i < numKeys; ++i) {
+            keys[i] = "key_" + i;
+        }
+
+        // Memory usage of a population of tables
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+        ContextTable[] tables = new ContextTable[numTables];
+        for(int i = 0; i < numTables; ++i) {
+            ContextTable table = new ContextTable();
+            for(int j = 0; j < numKeys; ++j) {
+                table.set(keys[j], j);
+            }
+            tables[i] = table;
+        }
+        System.gc();
+        long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
+        MyLogger.info("Took ~" + ((memoryAfter - memoryBefore) / numTables) + " bytes per context table with " + numKeys + " facts");
+
+        // Throughput of mutating and reading existing facts
+        float sum = 0.0f;
+        long start = System.currentTimeMillis();
+        for(int n = 0; n < iterations; ++n) {
+            for(ContextTable table : tables) {
+                for(String key : keys) {
+                    table.set(key, table.get(key) + 1.0f);
+                    if(table.contains(key)) {
+                        sum += table.get(key);
+                    }
+                }
+            }
+        }
+        long end = System.currentTimeMillis();
+        long numOperations = (long) iterations * numTables * numKeys;
+        MyLogger.info("Took " + (end - start) + "ms to perform " + numOperations + " set/get/contains operations by key (checksum " + sum + ")");
+
+        // Same workload with keys resolved to ids ahead of time
+        int[] keyIds = new int[numKeys];
+        for(int i = 0; i < numKeys; ++i) {
+            keyIds[i] = KeyCache.cacheKey(keys[i]);
+        }
+        sum = 0.0f;
+        start = System.currentTimeMillis();
+        for(int n = 0; n < iterations; ++n) {
+            for(ContextTable table : tables) {
+                for(int keyId : keyIds) {
+                    table.set(keyId, table.get(keyId) + 1.0f);
+                    if(table.contains(keyId)) {
+                        sum += table.get(keyId);
+                    }
+                }
+            }
+        }
+        end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to perform " + numOperations + " set/get/contains operations by key id (checksum " + sum + ")");
+    }
+
+    private static void testSharedContextTable(int numReaders, int numKeys, int iterations) {
+        int[] keyIds = new int[numKeys];
+        SharedContextTable shared = new SharedContextTable();
+        for(int i = 0; i < numKeys; ++i) {
+            keyIds[i] = KeyCache.cacheKey("shared_" + i);
+            shared.set(keyIds[i], 0.0f);
+        }
+
+        // Readers take a snapshot for each pass while a writer keeps publishing new versions
+        Thread[] readers = new Thread[numReaders];
+        float[] sums = new float[numReaders];
+        for(int r = 0; r < numReaders; ++r) {
+            final int reader = r;
+            readers[r] = new Thread(() -> {
+                float sum = 0.0f;
+                for(int n = 0; n < iterations; ++n) {
+                    ContextTable snapshot = shared.snapshot();
+                    sum += snapshot.get(keyIds[n % numKeys]);
+                }
+                sums[reader] = sum;
+            });
+        }
+        int[] numWrites = new int[1];
+        Thread writer = new Thread(() -> {
+            while(readers[0].isAlive()) {
+                int keyId = keyIds[numWrites[0] % numKeys];
+                shared.set(keyId, shared.get(keyId) + 1.0f);
+                ++numWrites[0];
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        for(Thread reader : readers) {
+            reader.start();
+        }
+        writer.start();
+        try {
+            for(Thread reader : readers) {
+                reader.join();
+            }
+            writer.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms for " + numReaders + " threads to read a shared table " + iterations + " times each during " + numWrites[0] + " writes");
+    }
+
+    private static void testConcurrentContextTable(int numThreads, int numCounters, int iterations) {
+        int[] keyIds = new int[numCounters];
+        ConcurrentContextTable table = new ConcurrentContextTable();
+        for(int i = 0; i < numCounters; ++i) {
+            keyIds[i] = KeyCache.cacheKey("counter_" + i);
+        }
+
+        // Every thread increments every counter, so the counters are heavily contended
+        Thread[] threads = new Thread[numThreads];
+        for(int t = 0; t < numThreads; ++t) {
+            threads[t] = new Thread(() -> {
+                for(int n = 0; n < iterations; ++n) {
+                    table.add(keyIds[n % numCounters], 1.0f);
+                }
+            });
+        }
+
+        long start = System.currentTimeMillis();
+        for(Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for(Thread thread : threads) {
+                thread.join();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long end = System.currentTimeMillis();
+
+        float total = 0.0f;
+        for(int keyId : keyIds) {
+            total += table.getAsNumber(keyId);
+        }
+        MyLogger.info("Took " + (end - start) + "ms for " + numThreads + " threads to add to " + numCounters + " shared counters " + iterations + " times each (total " + (long) total + ", expected " + ((long) numThreads * iterations) + ")");
+    }
+
+    private static void testOverlayContextTable(int numKeys, int iterations) {
+        ContextTable base = new ContextTable();
+        for(int i = 0; i < numKeys; ++i) {
+            base.set("base_" + i, i);
+        }
+        int overrideId = KeyCache.cacheKey("base_0");
+        int readId = KeyCache.cacheKey("base_" + (numKeys - 1));
+
+        // Speculative change made by copying the table
+        float sum = 0.0f;
+        long start = System.currentTimeMillis();
+        for(int n = 0; n < iterations; ++n) {
+            ContextTable copy = new ContextTable(base);
+            copy.set(overrideId, n);
+            sum += copy.get(overrideId) + copy.get(readId);
+        }
+        long end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to copy and override a table with " + numKeys + " facts " + iterations + " times (checksum " + sum + ")");
+
+        // Same change made in an overlay
+        sum = 0.0f;
+        start = System.currentTimeMillis();
+        for(int n = 0; n < iterations; ++n) {
+            OverlayContextTable overlay = new OverlayContextTable(base);
+            overlay.set(overrideId, n);
+            sum += overlay.get(overrideId) + overlay.get(readId);
+        }
+        end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to overlay and override a table with " + numKeys + " facts " + iterations + " times (checksum " + sum + ")");
+    }
+
+    private static void testStringCacheContention(int numThreads, int numStrings, int iterations) {
+        String[] strings = new String[numStrings];
+        for(int i = 0; i < numStrings; ++i) {
+            strings[i] = "contended_" + numThreads + "_" + i;
+        }
+
+        // Every thread caches the same strings, so new strings race to be cached before most calls become lookups
+        StringCache stringCache = new StringCache();
+        Thread[] threads = new Thread[numThreads];
+        int[] mismatches = new int[numThreads];
+        for(int t = 0; t < numThreads; ++t) {
+            final int index = t;
+            threads[t] = new Thread(() -> {
+                for(int n = 0; n < iterations; ++n) {
+                    String str = strings[(n * 31 + index) % numStrings];
+                    if(!str.equals(stringCache.lookup(stringCache.cacheString(str)))) {
+                        ++mismatches[index];
+                    }
+                }
+            });
+        }
+
+        long start = System.currentTimeMillis();
+        for(Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for(Thread thread : threads) {
+                thread.join();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long end = System.currentTimeMillis();
+
+        int totalMismatches = 0;
+        for(int count : mismatches) {
+            totalMismatches += count;
+        }
+        MyLogger.info("Took " + (end - start) + "ms for " + numThreads + " threads to cache and look up " + iterations + " strings each (" + totalMismatches + " mismatches)");
+    }
+
+    private static void testFrozenVocabulary(int numStrings) {
+        String[] strings = new String[numStrings];
+        for(int i = 0; i < numStrings; ++i) {
+            strings[i] = "vocabulary_" + i;
+        }
+
+        long start = System.currentTimeMillis();
+        StringCache stringCache = new StringCache();
+        for(String str : strings) {
+            stringCache.cacheString(str);
+        }
+        long end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to cache " + numStrings + " strings one at a time");
+
+        try {
+            Path path = Files.createTempFile("vocabulary", ".bin");
+            start = System.currentTimeMillis();
+            stringCache.freeze().save(path);
+            end = System.currentTimeMillis();
+            MyLogger.info("Took " + (end - start) + "ms to freeze and save them (" + Files.size(path) + " bytes)");
+
+            start = System.currentTimeMillis();
+            StringCache frozenCache = new StringCache(FrozenStringTable.load(path));
+            int mismatches = 0;
+            for(String str : strings) {
+                if(frozenCache.cacheString(str) != stringCache.cacheString(str)) {
+                    ++mismatches;
+                }
+            }
+            end = System.currentTimeMillis();
+            MyLogger.info("Took " + (end - start) + "ms to map them back in and look up every string (" + mismatches
+                    + " mismatches, " + (frozenCache.getSize() - frozenCache.getFrozenSize()) + " added at runtime)");
+            Files.delete(path);
+        } catch(IOException e) {
+            MyLogger.severe("Error: Failed to save vocabulary", e);
+        }
+    }
+
+    private static void testStringEviction(int numTables, int numRounds) {
+        StringCache stringCache = new StringCache();
+        stringCache.cacheString("town");
+        stringCache.enableEviction();
+
+        // Each round replaces the tables of the previous one, so only the latest names are still referenced
+        ContextTable[] tables = new ContextTable[numTables];
+        long evictTime = 0;
+        int maxSize = 0;
+        for(int round = 0; round < numRounds; ++round) {
+            for(int i = 0; i < numTables; ++i) {
+                tables[i] = new ContextTable(stringCache)
+                        .set("name", "player_" + round + "_" + i)
+                        .set("home", "town");
+            }
+            System.gc();
+            long start = System.nanoTime();
+            stringCache.evict();
+            evictTime += System.nanoTime() - start;
+            maxSize = Math.max(maxSize, stringCache.getSize());
+        }
+
+        int mismatches = 0;
+        for(int i = 0; i < numTables; ++i) {
+            if(!("player_" + (numRounds - 1) + "_" + i).equals(tables[i].getAsString("name"))) {
+                ++mismatches;
+            }
+        }
+        MyLogger.info("Took " + (evictTime / 1000000) + "ms to run " + numRounds + " evictions over " + (numTables * numRounds)
+                + " names (" + stringCache.getNumEvicted() + " evicted, " + stringCache.getNumReferenced() + " referenced, "
+                + stringCache.getNumReclaimable() + " reclaimable, at most " + maxSize + " cached, " + mismatches + " mismatches)");
+    }
+
+    private static void testExpiringFacts(int numTables, int maxTtl) {
+        ExpiryWheel wheel = ExpiryWheel.getInstance();
+        int keyId = KeyCache.cacheKey("saw_player_recently");
+        ContextTable[] tables = new ContextTable[numTables];
+        Random random = new Random(0);
+
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < numTables; ++i) {
+            tables[i] = new ContextTable().set(keyId, true, 1 + random.nextInt(maxTtl));
+        }
+        long end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to set " + numTables + " expiring facts");
+
+        start = System.currentTimeMillis();
+        int numPresent = 0;
+        for(int tick = 0; tick < maxTtl; ++tick) {
+            wheel.advance(1);
+            if(tables[tick % numTables].contains(keyId)) {
+                ++numPresent;
+            }
+        }
+        end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to expire them over " + maxTtl + " ticks (checksum " + numPresent + ", " + wheel.getNumScheduled() + " left)");
+    }
+
+    private static void testExpiringOverrides(int numTables, int maxTtl) {
+        ExpiryWheel wheel = ExpiryWheel.getInstance();
+        int keyId = KeyCache.cacheKey("mood");
+        ContextTable archetype = new ContextTable().set(keyId, "calm").freeze();
+        ContextTable[] tables = new ContextTable[numTables];
+        Random random = new Random(0);
+        for(int i = 0; i < numTables; ++i) {
+            // Some overrides expire immediately, which the wheel can only reclaim on the next tick
+            tables[i] = new ArchetypeContextTable(archetype).set(keyId, "angry", random.nextInt(maxTtl + 1) - 1);
+        }
+
+        long start = System.currentTimeMillis();
+        wheel.advance(maxTtl);
+        long end = System.currentTimeMillis();
+        int numLeft = 0;
+        int numMismatches = 0;
+        for(ContextTable table : tables) {
+            numLeft += ((ArchetypeContextTable) table).getNumOverrides();
+            if(!"calm".equals(table.getAsString(keyId))) {
+                ++numMismatches;
+            }
+        }
+        MyLogger.info("Took " + (end - start) + "ms to expire " + numTables + " overrides (" + numLeft + " left unreclaimed, " + numMismatches + " mismatches)");
+    }
+
+    private static void testArchetypeContextTable(int numTables, int numKeysPerArchetype, int numOverrides) {
+        String[] archetypeNames = { "class", "faction", "voice" };
+        int[][] archetypeKeyIds = new int[archetypeNames.length][numKeysPerArchetype];
+        ContextTable[] archetypes = new ContextTable[archetypeNames.length];
+        for(int i = 0; i < archetypes.length; ++i) {
+            archetypes[i] = new ContextTable();
+            for(int j = 0; j < numKeysPerArchetype; ++j) {
+                archetypeKeyIds[i][j] = KeyCache.cacheKey(archetypeNames[i] + "_" + j);
+                archetypes[i].set(archetypeKeyIds[i][j], j);
+            }
+            archetypes[i].freeze();
+        }
+        int[] ownKeyIds = new int[numOverrides];
+        for(int j = 0; j < numOverrides; ++j) {
+            ownKeyIds[j] = KeyCache.cacheKey("own_" + j);
+        }
+        int numKeys = archetypes.length * numKeysPerArchetype + numOverrides;
+
+        // Every table holds every fact itself
+        long fullBytes = measureBytesPerTable(numTables, i -> {
+            ContextTable table = new ContextTable();
+            for(int[] keyIds : archetypeKeyIds) {
+                for(int j = 0; j < numKeysPerArchetype; ++j) {
+                    table.set(keyIds[j], j);
+                }
+            }
+            for(int keyId : ownKeyIds) {
+                table.set(keyId, i);
+            }
+            return table;
+        });
+        MyLogger.info("Took ~" + fullBytes + " bytes per context table with " + numKeys + " facts");
+
+        // Every table inherits from the same archetypes and only holds its own facts
+        long archetypeBytes = measureBytesPerTable(numTables, i -> {
+            ContextTable table = new ArchetypeContextTable(archetypes);
+            for(int keyId : ownKeyIds) {
+                table.set(keyId, i);
+            }
+            return table;
+        });
+        MyLogger.info("Took ~" + archetypeBytes + " bytes per archetype context table with " + numKeys + " facts");
+    }
+
+    private static void testCompactLists(int numTables, int listSize) {
+        int keyId = KeyCache.cacheKey("list");
+        String[] items = new String[listSize];
+        for(int j = 0; j < listSize; ++j) {
+            items[j] = "item_" + j;
+        }
+        ContextTable.setOf(items);
+
+        long hashBytes = measureBytesPerTable(numTables, i -> {
+            IntSet list = new IntOpenHashSet(listSize);
+            for(String item : items) {
+                list.add(StringCache.getDefault().cacheString(item));
+            }
+            return new ContextTable().set(keyId, list);
+        });
+        long compactBytes = measureBytesPerTable(numTables, i -> new ContextTable().set(keyId, ContextTable.setOf(items)));
+        MyLogger.info("Took ~" + hashBytes + " bytes per table with a hash set list of " + listSize + " items, ~"
+                + compactBytes + " bytes with a compact list");
+    }
+
+    private static void testCategoryIndex(int numEntries, int numKeys, int numQueries) {
+        String[] keys = new String[numKeys];
+        for(int i = 0; i < numKeys; ++i) {
+            keys[i] = "fact_" + i;
+            KeyCache.cacheKey(keys[i]);
+        }
+        Random random = new Random(0);
+
+        // Each rule tests a few facts, mostly for existence
+        SpeechbankEntry[] entries = new SpeechbankEntry[numEntries];
+        for(int i = 0; i < numEntries; ++i) {
+            int numCriteria = 1 + random.nextInt(4);
+            Rule.Builder builder = Rule.builder(numCriteria + 2);
+            // Half of the rules are only for one class, as most authored rules pin a string fact
+            if(random.nextBoolean()) {
+                builder.add(new CriterionTuple("class", "speaker",
+                        CriterionExact.equals("class_" + random.nextInt(16), false, StringCache.getDefault())));
+            }
+            // And half are only for a band of health
+            if(random.nextBoolean()) {
+                int minHealth = random.nextInt(90);
+                builder.add(new CriterionTuple("health", "speaker", CriterionStatic.between(minHealth, minHealth + 10, false)));
+            }
+            for(int j = 0; j < numCriteria; ++j) {
+                String key = keys[random.nextInt(numKeys)];
+                int kind = random.nextInt(10);
+                if(kind < 7) {
+                    builder.add(new CriterionTuple(key, "speaker", CriterionExist.exists(false)));
+                } else if(kind < 8) {
+                    builder.add(new CriterionTuple(key, "speaker", CriterionExist.exists(true)));
+                } else {
+                    builder.add(new CriterionTuple(key, "speaker", CriterionStatic.equals(random.nextInt(4))));
+                }
+            }
+            Rule rule = builder.build();
+            for(CriterionTuple tuple : rule.getCriteria()) {
+                tuple.link();
+            }
+            entries[i] = new SpeechbankEntry(rule, null, null, false);
+        }
+        Arrays.sort(entries, Collections.reverseOrder());
+        Speechbank speechbank = new Speechbank("test", Map.of("test", entries));
+
+        SpeechQuery[] queries = new SpeechQuery[numQueries];
+        for(int i = 0; i < numQueries; ++i) {
+            ContextTable table = new ContextTable()
+                    .set("class", "class_" + random.nextInt(16))
+                    .set("health", random.nextInt(100));
+            for(int j = 0; j < numKeys / 4; ++j) {
+                table.set(keys[random.nextInt(numKeys)], random.nextInt(4));
+            }
+            queries[i] = new SpeechQuery(new ContextSet().put(ContextSet.SPEAKER, table), functionLookup);
+        }
+
+        // Checks every entry in order, as selectEntry did before categories were indexed
+        long start = System.currentTimeMillis();
+        long linearChecked = 0;
+        int[] linearPriorities = new int[numQueries];
+        for(int i = 0; i < numQueries; ++i) {
+            int highestMatchingPriority = -999;
+            for(SpeechbankEntry entry : entries) {
+                int priority = entry.getRule().getPriority();
+                if(priority < highestMatchingPriority) {
+                    break;
+                }
+                if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+                    MyLogger.finest("Checking " + entry.getRule());
+                }
+                ++linearChecked;
+                if(Speechbank.match(entry.getRule(), queries[i], false)) {
+                    highestMatchingPriority = priority;
+                }
+            }
+            linearPriorities[i] = highestMatchingPriority;
+        }
+        long end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to scan " + numQueries + " queries over " + numEntries
+                + " rules, checking " + (linearChecked / numQueries) + " rules per query");
+
+        start = System.currentTimeMillis();
+        long indexedChecked = 0;
+        int numMismatches = 0;
+        for(int i = 0; i < numQueries; ++i) {
+            SpeechbankEntry entry = speechbank.selectEntry("test", queries[i]);
+            int priority = entry == null ? -999 : entry.getRule().getPriority();
+            if(priority != linearPriorities[i]) {
+                ++numMismatches;
+            }
+            indexedChecked += queries[i].getNumRulesChecked();
+        }
+        end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to select from the index, checking " + (indexedChecked / numQueries)
+                + " rules per query (" + numMismatches + " mismatches)");
+
+        start = System.currentTimeMillis();
+        long filteredChecked = 0;
+        numMismatches = 0;
+        for(int i = 0; i < numQueries; ++i) {
+            SpeechQuery query = new SpeechQuery(queries[i].getContexts(), functionLookup);
+            SpeechbankEntry entry = speechbank.selectEntry("test", query, EvaluationMode.LINEAR);
+            int priority = entry == null ? -999 : entry.getRule().getPriority();
+            if(priority != linearPriorities[i]) {
+                ++numMismatches;
+            }
+            filteredChecked += query.getNumRulesChecked();
+        }
+        end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to scan with key signatures over " + speechbank.getIndexFor("test").getPresenceFilter().getNumKeys()
+                + " keys, checking " + (filteredChecked / numQueries) + " rules per query (" + numMismatches + " mismatches)");
+
+        start = System.currentTimeMillis();
+        numMismatches = 0;
+        for(int i = 0; i < numQueries; ++i) {
+            SpeechbankEntry entry = speechbank.selectEntry("test", queries[i], EvaluationMode.BITSET);
+            int priority = entry == null ? -999 : entry.getRule().getPriority();
+            if(priority != linearPriorities[i]) {
+                ++numMismatches;
+            }
+        }
+        end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to match with bitsets over " + speechbank.getMatrixFor("test").getNumCriteria()
+                + " distinct criteria (" + numMismatches + " mismatches)");
+    }
+
+    // Every rule is parsed with its own copies of a few common checks
+    private static Rule[] buildRepeatedRules(int numRules, int numKeys) {
+        Random random = new Random(0);
+        Rule[] rules = new Rule[numRules];
+        for(int i = 0; i < numRules; ++i) {
+            rules[i] = Rule.builder(3)
+                    .add(new CriterionTuple("hostile", "speaker", CriterionExact.equals(random.nextBoolean())))
+                    .add(new CriterionTuple("fact_" + random.nextInt(numKeys), "speaker", CriterionExist.exists(false)))
+                    .add(new CriterionTuple("health", "speaker", CriterionStatic.min(10 * random.nextInt(10), false)))
+                    .build();
+        }
+        return rules;
+    }
+
+    private static void testCriterionPool(int numRules, int numKeys) {
+        Rule[] rules = buildRepeatedRules(numRules, numKeys);
+        CriterionPool pool = new CriterionPool();
+        long start = System.currentTimeMillis();
+        for(Rule rule : rules) {
+            rule.internCriteria(pool);
+        }
+        long end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to intern " + pool.getNumInterned() + " criteria into " + pool.size()
+                + " distinct tuples and " + pool.getNumDistinctCriteria() + " distinct criteria");
+    }
+
+    private static void testCriterionMemo(int numRules, int numKeys, int numQueries) {
+        Rule[] rules = buildRepeatedRules(numRules, numKeys);
+        CriterionPool pool = new CriterionPool();
+        SpeechbankEntry[] entries = new SpeechbankEntry[numRules];
+        for(int i = 0; i < numRules; ++i) {
+            for(CriterionTuple tuple : rules[i].getCriteria()) {
+                tuple.link();
+            }
+            rules[i].internCriteria(pool);
+            entries[i] = new SpeechbankEntry(rules[i], null, null, false);
+        }
+        Speechbank speechbank = new Speechbank("test", Map.of("test", entries));
+
+        Random random = new Random(1);
+        long numEvaluated = 0;
+        long numMemoized = 0;
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < numQueries; ++i) {
+            ContextTable table = new ContextTable()
+                    .set("hostile", random.nextBoolean())
+                    .set("health", random.nextInt(100))
+                    .set("fact_" + random.nextInt(numKeys), true);
+            SpeechQuery query = new SpeechQuery(new ContextSet().put(ContextSet.SPEAKER, table), functionLookup);
+            speechbank.selectEntry("test", query, EvaluationMode.LINEAR);
+            numEvaluated += query.getNumCriteriaEvaluated();
+            numMemoized += query.getNumCriteriaMemoized();
+        }
+        long end = System.currentTimeMillis();
+        MyLogger.info("Took " + (end - start) + "ms to scan " + numQueries + " queries over " + numRules + " interned rules, evaluating "
+                + (numEvaluated / numQueries) + " criteria per query instead of " + ((numEvaluated + numMemoized) / numQueries));
+    }
+
+    private static void testCriterionOrdering(int numRules, int numQueries) {
+        // Static priority checks the facts that nearly always pass first, and the class that rarely matches last
+        Random random = new Random(0);
+        Rule[] rules = new Rule[numRules];
+        CriterionPool pool = new CriterionPool();
+        for(int i = 0; i < numRules; ++i) {
+            int minHealth = random.nextInt(20);
+            rules[i] = Rule.builder(3)
+                    .add(new CriterionTuple("level", "speaker", CriterionExist.exists(false)))
+                    .add(new CriterionTuple("health", "speaker", CriterionStatic.between(minHealth, minHealth + 80, false)))
+                    .add(new CriterionTuple("class", "speaker",
+                            CriterionExact.equals("class_" + random.nextInt(16), false, StringCache.getDefault())))
+                    .build();
+            for(CriterionTuple tuple : rules[i].getCriteria()) {
+                tuple.link();
+            }
+            rules[i].internCriteria(pool);
+        }
+
+        SpeechQuery[] queries = new SpeechQuery[numQueries];
+        for(int i = 0; i < numQueries; ++i) {
+            ContextTable table = new ContextTable()
+                    .set("level", 1)
+                    .set("class", "class_" + random.nextInt(16))
+                    .set("health", random.nextInt(100));
+            queries[i] = new SpeechQuery(new ContextSet().put(ContextSet.SPEAKER, table), functionLookup);
+        }
+
+        CriterionProfiler profiler = new CriterionProfiler(pool);
+        int[] matchedBefore = new int[numQueries];
+        long checkedBefore = 0;
+        for(int i = 0; i < numQueries; ++i) {
+            SpeechQuery query = queries[i];
+            query.setProfiler(profiler);
+            for(Rule rule : rules) {
+                if(Speechbank.match(rule, query, false)) {
+                    ++matchedBefore[i];
+                }
+            }
+            query.setProfiler(null);
+            checkedBefore += query.getNumCriteriaEvaluated() + query.getNumCriteriaMemoized();
+        }
+
+        long start = System.currentTimeMillis();
+        for(Rule rule : rules) {
+            rule.reorderCriteria(profiler);
+        }
+        long end = System.currentTimeMillis();
+
+        int numMismatches = 0;
+        long checkedAfter = 0;
+        for(int i = 0; i < numQueries; ++i) {
+            SpeechQuery query = new SpeechQuery(queries[i].getContexts(), functionLookup);
+            int matched = 0;
+            for(Rule rule : rules) {
+                if(Speechbank.match(rule, query, false)) {
+                    ++matched;
+                }
+            }
+            if(matched != matchedBefore[i]) {
+                ++numMismatches;
+            }
+            checkedAfter += query.getNumCriteriaEvaluated() + query.getNumCriteriaMemoized();
+        }
+        MyLogger.info("Took " + (end - start) + "ms to reorder " + numRules + " rules by observed selectivity, checking "
+                + (checkedAfter / numQueries) + " criteria per query instead of " + (checkedBefore / numQueries)
+                + " (" + numMismatches + " mismatches)");
+    }
+
+    private static long measureBytesPerTable(int numTables, IntFunction<ContextTable> factory) {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.gc();
+        long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+        ContextTable[] tables = new ContextTable[numTables];
+        for(int i = 0; i < numTables; ++i) {
+            tables[i] = factory.apply(i);
+        }
+        System.gc();
+        System.gc();
+        long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
+        if(tables[numTables - 1].size() < 0) {
+            MyLogger.warning("Unreachable, keeps the tables alive until measured");
+        }
+        return (memoryAfter - memoryBefore) / numTables;
+    }
+
     private static void testLine(String str) throws TokenizeException, SymbolException {
         Map<String, Token> symbols = getTestSymbols();
-        Map<String, ContextTable> contexts = getTestContexts();
+        ContextSet contexts = getTestContexts();
         SpeechQuery query = new SpeechQuery(contexts, functionLookup);
 
         MyLogger.info(String.format("%16s: %s", "Original string", '"' + str + '"'));
@@ -1,6 +1,8 @@
 package io.github.drakonkinst.contextualdialogue.action;
 
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.function.FunctionLookup;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 
 import java.io.Serializable;
 import java.util.Map;
@@ -10,8 +12,27 @@ public interface Action extends Serializable {
      * Performs an action. Actions fail silently, and
      * should not throw errors even if it is unable
      * to perform the action.
+     * <p>
+     * Implementations must override either this method or the
+     * deprecated perform(Map), which this calls by default.
+     *
+     * @param query The query whose context tables are acted on.
+     */
+    default void perform(SpeechQuery query) {
+        perform(query.getContexts().toMap());
+        // The action could have changed any fact, so nothing the query remembered can be trusted
+        query.invalidateAll();
+    }
+
+    /**
+     * Performs an action on a map of context tables.
      *
      * @param contexts The available context tables.
+     * @deprecated Override perform(SpeechQuery) instead, which reuses the
+     * tables the query has already resolved.
      */
-    void perform(Map<String, ContextTable> contexts);
+    @Deprecated
+    default void perform(Map<String, ContextTable> contexts) {
+        perform(new SpeechQuery(contexts, (FunctionLookup) null));
+    }
 }
@@ -4,8 +4,6 @@ import io.github.drakonkinst.commonutil.MyLogger;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 
-import java.util.Map;
-
 /**
  * A context action that performs addition or multiplication on a numeric context.
  */
@@ -22,36 +20,32 @@ public class ArithmeticAction extends ContextAction {
     /**
      * Initializes the context field to 0.0 if it does not exist.
      * Then performs addition or multiplication on the value by
-     * some constant value.
+     * some constant value, as a single update to the table.
      * Fails if the field exists but is not numeric.
      *
-     * @param contexts The available context tables.
+     * @param query The query whose context tables are acted on.
      */
     @Override
-    public void perform(Map<String, ContextTable> contexts) {
-        ContextTable table = SpeechQuery.getMatchingOrFirstAvailable(fieldName, tableName, contexts);
-
+    public void perform(SpeechQuery query) {
+        int keyId = field.cacheKeyId();
+        ContextTable table = findWritableTable(query);
         if(table == null) {
-            MyLogger.warning("Failed to find a table for table=" + tableName + ", field=" + fieldName);
             return;
         }
 
-        if(!table.contains(fieldName)) {
-            table.set(fieldName, 0.0f);
+        boolean success;
+        if(isAdd) {
+            success = table.add(keyId, modifier);
+        } else {
+            success = table.multiply(keyId, modifier);
         }
 
-        if(!table.isNumber(fieldName)) {
+        if(!success) {
             MyLogger.warning("Arithmetic operations only work on numerical fields!");
             return;
         }
-
-        float value = table.getAsNumber(fieldName);
-        float newValue;
-        if(isAdd) {
-            newValue = value + modifier;
-        } else {
-            newValue = value * modifier;
-        }
-        table.set(fieldName, newValue);
+        // The new value can change the result of every criterion that reads it, and creating a missing field can
+        // change the table that owns it
+        query.invalidate(keyId);
     }
 }
@@ -1,14 +1,40 @@
 package io.github.drakonkinst.contextualdialogue.action;
 
+import io.github.drakonkinst.commonutil.MyLogger;
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
+import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
+
 /**
  * Represents an action that manipulates a specific context field.
  */
 public abstract class ContextAction implements Action {
-    protected final String tableName;   // May be null to select the matching or first available table.
-    protected final String fieldName;
+    protected final ContextKey field;   // Table may be null to select the matching or first available table.
 
     public ContextAction(String tableName, String fieldName) {
-        this.tableName = tableName;
-        this.fieldName = fieldName;
+        this.field = new ContextKey(tableName, fieldName);
+    }
+
+    // Resolves every context key this action reads or writes
+    public void link() {
+        field.link();
+    }
+
+    // Returns the table to write the field to, or null with a warning if there is none
+    protected ContextTable findWritableTable(SpeechQuery query) {
+        ContextTable table = query.getMatchingOrFirstAvailable(field);
+        if(table == null) {
+            MyLogger.warning("Failed to find a table for table=" + field.getTable() + ", field=" + field.getKey());
+            return null;
+        }
+        if(table.isFrozen()) {
+            MyLogger.warning("Cannot modify frozen table for table=" + field.getTable() + ", field=" + field.getKey());
+            return null;
+        }
+        return table;
+    }
+
+    public ContextKey getField() {
+        return field;
     }
 }
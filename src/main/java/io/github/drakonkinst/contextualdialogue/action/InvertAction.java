@@ -4,8 +4,6 @@ import io.github.drakonkinst.commonutil.MyLogger;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 
-import java.util.Map;
-
 /**
  * A context action that inverts a boolean context.
  */
@@ -15,18 +13,17 @@ public class InvertAction extends ContextAction {
     }
 
     @Override
-    public void perform(Map<String, ContextTable> contexts) {
-        ContextTable table = SpeechQuery.getMatchingOrFirstAvailable(fieldName, tableName, contexts);
+    public void perform(SpeechQuery query) {
+        int keyId = field.getKeyId();
+        ContextTable table = findWritableTable(query);
         if(table == null) {
-            MyLogger.warning("Failed to find a table for table=" + tableName + ", field=" + fieldName);
             return;
         }
 
-        if(!table.isBoolean(fieldName)) {
+        if(!table.invert(keyId)) {
             MyLogger.warning("Invert operation only works on booleans!");
             return;
         }
-
-        table.set(fieldName, !table.getAsBoolean(fieldName));
+        query.invalidate(keyId);
     }
 }
@@ -1,11 +1,8 @@
 package io.github.drakonkinst.contextualdialogue.action;
 
-import io.github.drakonkinst.commonutil.MyLogger;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 
-import java.util.Map;
-
 /**
  * A context action that removes a context.
  */
@@ -15,13 +12,14 @@ public class RemoveAction extends ContextAction {
     }
 
     @Override
-    public void perform(Map<String, ContextTable> contexts) {
-        ContextTable table = SpeechQuery.getMatchingOrFirstAvailable(fieldName, tableName, contexts);
+    public void perform(SpeechQuery query) {
+        ContextTable table = findWritableTable(query);
         if(table == null) {
-            MyLogger.warning("Failed to find a table for table=" + tableName + ", field=" + fieldName);
             return;
         }
 
-        table.remove(fieldName);
+        int keyId = field.getKeyId();
+        table.remove(keyId);
+        query.invalidate(keyId);
     }
 }
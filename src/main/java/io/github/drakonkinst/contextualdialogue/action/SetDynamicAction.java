@@ -1,48 +1,57 @@
 package io.github.drakonkinst.contextualdialogue.action;
 
 import io.github.drakonkinst.commonutil.MyLogger;
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
 import io.github.drakonkinst.contextualdialogue.context.FactType;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 
-import java.util.Map;
-
 /**
  * A context action that sets a context equal to another context.
  */
 public class SetDynamicAction extends ContextAction {
-    private final String otherTableName;
-    private final String otherFieldName;
+    private final ContextKey other;
 
     public SetDynamicAction(String tableName, String fieldName, String otherTableName, String otherFieldName) {
         super(tableName, fieldName);
-        this.otherTableName = otherTableName;
-        this.otherFieldName = otherFieldName;
+        this.other = new ContextKey(otherTableName, otherFieldName);
+    }
+
+    @Override
+    public void link() {
+        super.link();
+        other.link();
     }
 
     @Override
-    public void perform(Map<String, ContextTable> contexts) {
-        ContextTable table = SpeechQuery.getMatchingOrFirstAvailable(fieldName, tableName, contexts);
+    public void perform(SpeechQuery query) {
+        int keyId = field.cacheKeyId();
+        ContextTable table = findWritableTable(query);
         if(table == null) {
-            MyLogger.warning("Failed to find a table for table=" + tableName + ", field=" + fieldName);
             return;
         }
 
-        ContextTable otherTable = SpeechQuery.getMatchingTableFromMap(otherFieldName, otherTableName, contexts);
+        int otherKeyId = other.getKeyId();
+        ContextTable otherTable = query.getMatchingTable(other);
         if(otherTable == null) {
-            MyLogger.warning("Failed to find a table for \"" + otherFieldName + "\"");
+            MyLogger.warning("Failed to find a table for \"" + other.getKey() + "\"");
             return;
         }
 
-        FactType valueType = otherTable.getType(otherFieldName);
+        FactType valueType = otherTable.getType(otherKeyId);
         if(valueType == FactType.NULL) {
             MyLogger.warning("Cannot set value to null");
             return;
         }
-        if(!table.contains(fieldName) || table.getType(fieldName) == valueType) {
-            table.set(fieldName, otherTable.get(fieldName), valueType);
+        if(!table.contains(keyId) || table.getType(keyId) == valueType) {
+            if(valueType == FactType.NUMBER) {
+                table.set(keyId, otherTable.getAsNumber(otherKeyId), valueType);
+            } else {
+                table.set(keyId, otherTable.getAsInt(otherKeyId), valueType);
+            }
+            query.invalidate(keyId);
         } else {
-            MyLogger.warning("Value mismatch from \"" + fieldName + "\" to \"" + otherFieldName + "\"");
+            MyLogger.warning("Value mismatch from \"" + field.getKey() + "\" to \"" + other.getKey() + "\"");
         }
     }
 }
@@ -4,11 +4,9 @@ import io.github.drakonkinst.commonutil.MyLogger;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
 import io.github.drakonkinst.contextualdialogue.context.FactType;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import io.github.drakonkinst.contextualdialogue.util.CompactIntSets;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
-import java.util.Map;
-
 /**
  * A context action that sets a context to a specific value.
  */
@@ -21,18 +19,19 @@ public class SetListAction extends ContextAction {
     }
 
     @Override
-    public void perform(Map<String, ContextTable> contexts) {
-        ContextTable table = SpeechQuery.getMatchingOrFirstAvailable(fieldName, tableName, contexts);
+    public void perform(SpeechQuery query) {
+        int keyId = field.cacheKeyId();
+        ContextTable table = findWritableTable(query);
         if(table == null) {
-            MyLogger.warning("Failed to find a table for table=" + tableName + ", field=" + fieldName);
             return;
         }
 
-        FactType valueType = table.getType(fieldName);
+        FactType valueType = table.getType(keyId);
         if(valueType == FactType.NULL || valueType == FactType.LIST) {
-            table.set(fieldName, new IntOpenHashSet(value));
+            table.set(keyId, CompactIntSets.copyOf(value));
+            query.invalidate(keyId);
         } else {
-            MyLogger.warning("Type mismatch: Cannot set context of type " + valueType.name() + " to list for \"" + fieldName + "\"");
+            MyLogger.warning("Type mismatch: Cannot set context of type " + valueType.name() + " to list for \"" + field.getKey() + "\"");
         }
     }
 }
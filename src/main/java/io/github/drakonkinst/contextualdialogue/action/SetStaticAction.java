@@ -5,18 +5,26 @@ import io.github.drakonkinst.contextualdialogue.context.ContextTable;
 import io.github.drakonkinst.contextualdialogue.context.FactType;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 
-import java.util.Map;
-
 /**
  * A context action that sets a context to a specific value.
  */
 public class SetStaticAction extends ContextAction {
     private final float value;
+    private final int exactValue;   // Strings and booleans are set exactly, rather than passing through a float
     private final FactType type;
 
     public SetStaticAction(String tableName, String fieldName, float value, FactType type) {
+        this(tableName, fieldName, value, (int) value, type);
+    }
+
+    public SetStaticAction(String tableName, String fieldName, int value, FactType type) {
+        this(tableName, fieldName, value, value, type);
+    }
+
+    private SetStaticAction(String tableName, String fieldName, float value, int exactValue, FactType type) {
         super(tableName, fieldName);
         this.value = value;
+        this.exactValue = exactValue;
 
         if(type == FactType.NULL) {
             throw new IllegalArgumentException("Cannot set to null type");
@@ -25,18 +33,23 @@ public class SetStaticAction extends ContextAction {
     }
 
     @Override
-    public void perform(Map<String, ContextTable> contexts) {
-        ContextTable table = SpeechQuery.getMatchingOrFirstAvailable(fieldName, tableName, contexts);
+    public void perform(SpeechQuery query) {
+        int keyId = field.cacheKeyId();
+        ContextTable table = findWritableTable(query);
         if(table == null) {
-            MyLogger.warning("Failed to find a table for table=" + tableName + ", field=" + fieldName);
             return;
         }
 
-        FactType valueType = table.getType(fieldName);
+        FactType valueType = table.getType(keyId);
         if(valueType == FactType.NULL || valueType == type) {
-            table.set(fieldName, value, type);
+            if(type == FactType.NUMBER) {
+                table.set(keyId, value, type);
+            } else {
+                table.set(keyId, exactValue, type);
+            }
+            query.invalidate(keyId);
         } else {
-            MyLogger.warning("Type mismatch: Cannot set context of type " + valueType.name() + " to " + type.name() + " for \"" + fieldName + "\"");
+            MyLogger.warning("Type mismatch: Cannot set context of type " + valueType.name() + " to " + type.name() + " for \"" + field.getKey() + "\"");
         }
     }
 }
@@ -0,0 +1,32 @@
+package io.github.drakonkinst.contextualdialogue.context;
+
+/**
+ * A context table that inherits facts from one or more archetype tables.
+ * <p>
+ * Only the facts set on this table are stored in it, so a large population
+ * of tables can share most of their facts through a few archetypes, such as
+ * one per class, faction and voice. A fact is read from this table first, then
+ * from each archetype in order. Removing an inherited fact hides it from this
+ * table only. Archetypes should not be modified while they are in use, and are
+ * best frozen.
+ */
+public class ArchetypeContextTable extends LayeredContextTable {
+    /**
+     * Creates a table inheriting from the given archetypes. The array
+     * is not copied, so the same array can be shared by every table
+     * with the same archetypes.
+     *
+     * @param archetypes The archetypes, in the order they are searched.
+     */
+    public ArchetypeContextTable(final ContextTable... archetypes) {
+        super(archetypes);
+    }
+
+    public ContextTable getArchetype(final int index) {
+        return getLayer(index);
+    }
+
+    public int getNumArchetypes() {
+        return getNumLayers();
+    }
+}
@@ -0,0 +1,317 @@
+package io.github.drakonkinst.contextualdialogue.context;
+
+import io.github.drakonkinst.contextualdialogue.util.KeyCache;
+import io.github.drakonkinst.contextualdialogue.util.StringCache;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * A context table whose facts can be read and updated by many threads at once.
+ * <p>
+ * Each fact lives in its own cell, which is updated with compare-and-set, so
+ * writes only contend with other writes to the same fact and readers never
+ * block. Arithmetic and inversion are applied as a single atomic update on
+ * the packed fact, so counters that many threads increment never allocate.
+ * A list is stored in the cell before the fact that marks it as a list, and
+ * readers check that it did not change while they read the fact, so a list is
+ * never seen with a fact it does not belong to. The index from keys to
+ * cells is copied whenever a new key is added, which is the only operation
+ * that takes a lock; removed keys keep their cell so that setting them again
+ * does not touch the index.
+ */
+public class ConcurrentContextTable extends ContextTable {
+    private static final VarHandle FACT;
+
+    static {
+        try {
+            FACT = MethodHandles.lookup().findVarHandle(Cell.class, "fact", long.class);
+        } catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class Cell {
+        private volatile long fact = MISSING;
+        // Only meaningful while the fact is a list. It is left in place when the fact changes type, since clearing
+        // it could race with a writer that is about to publish a new list.
+        private volatile IntSet list = null;
+    }
+
+    // Immutable open-addressing index from key id to cell, replaced as a whole when a key is added
+    private static final class Index {
+        private final int[] keys;
+        private final Cell[] cells;
+        private final int mask;
+        private final int numKeys;
+
+        private Index(final int capacity, final int numKeys) {
+            this.keys = new int[capacity];
+            this.cells = new Cell[capacity];
+            this.mask = capacity - 1;
+            this.numKeys = numKeys;
+        }
+
+        private Cell find(final int keyId) {
+            int slot = HashCommon.mix(keyId) & mask;
+            int current;
+            while((current = keys[slot]) != KeyCache.NULL) {
+                if(current == keyId) {
+                    return cells[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        // Returns a copy of this index with the cell added, growing it at 2/3 load
+        private Index with(final int keyId, final Cell cell) {
+            int capacity = keys.length;
+            if(3 * (numKeys + 1) > 2 * capacity) {
+                capacity <<= 1;
+            }
+            final Index next = new Index(capacity, numKeys + 1);
+            for(int i = 0; i < keys.length; ++i) {
+                if(keys[i] != KeyCache.NULL) {
+                    next.put(keys[i], cells[i]);
+                }
+            }
+            next.put(keyId, cell);
+            return next;
+        }
+
+        private void put(final int keyId, final Cell cell) {
+            int slot = HashCommon.mix(keyId) & mask;
+            while(keys[slot] != KeyCache.NULL) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = keyId;
+            cells[slot] = cell;
+        }
+    }
+
+    private volatile Index index = new Index(4, 0);
+    private final AtomicInteger size = new AtomicInteger();
+
+    public ConcurrentContextTable() {}
+
+    public ConcurrentContextTable(final StringCache stringCache) {
+        super(stringCache);
+    }
+
+    // Creates a concurrent table with a copy of the facts in the given table, which must not have any that expire
+    public ConcurrentContextTable(final ContextTable initial) {
+        super(initial.getStringCache());
+        initial.forEachKey(keyId -> {
+            if(initial.getExpiry(keyId) != ExpiryWheel.NEVER) {
+                throw new IllegalArgumentException("Error: Concurrent context tables do not support expiring facts, but \""
+                        + KeyCache.lookup(keyId) + "\" expires!");
+            }
+            final long fact = initial.lookup(keyId);
+            if(typeOf(fact) == FactType.LIST.ordinal()) {
+                storeList(keyId, initial.lookupList(keyId));
+            } else {
+                store(keyId, bitsOf(fact), FactType.fromOrdinal(typeOf(fact)));
+            }
+        });
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    protected long lookup(final int keyId) {
+        if(keyId == KeyCache.NULL) {
+            return MISSING;
+        }
+        final Cell cell = index.find(keyId);
+        if(cell == null) {
+            return MISSING;
+        }
+        return cell.fact;
+    }
+
+    @Override
+    protected IntSet lookupList(final int keyId) {
+        if(keyId == KeyCache.NULL) {
+            return null;
+        }
+        final Cell cell = index.find(keyId);
+        if(cell == null) {
+            return null;
+        }
+        return readList(cell);
+    }
+
+    @Override
+    protected void store(final int keyId, final int bits, final FactType type) {
+        if(type == FactType.STRING) {
+            trackStrings();
+        }
+        exchange(getOrCreateCell(keyId), pack(type.ordinal(), bits));
+    }
+
+    @Override
+    protected void storeList(final int keyId, final IntSet list) {
+        trackStrings();
+        final Cell cell = getOrCreateCell(keyId);
+        // Publish the list before the fact, so a reader that sees the fact also sees the list
+        cell.list = list;
+        exchange(cell, pack(FactType.LIST.ordinal(), 0));
+    }
+
+    @Override
+    protected void setExpiry(final int keyId, final long deadline) {
+        throw new IllegalStateException("Error: Concurrent context tables do not support expiring facts!");
+    }
+
+    @Override
+    protected boolean delete(final int keyId) {
+        if(keyId == KeyCache.NULL) {
+            return false;
+        }
+        final Cell cell = index.find(keyId);
+        return cell != null && exchange(cell, MISSING) != MISSING;
+    }
+
+    @Override
+    protected boolean modifyNumber(final int keyId, final float operand, final boolean isAdd) {
+        final Cell cell = getOrCreateCell(keyId);
+        long prev;
+        long next;
+        do {
+            prev = cell.fact;
+            if(prev != MISSING && typeOf(prev) != FactType.NUMBER.ordinal()) {
+                return false;
+            }
+            final float result = applyArithmetic(valueOf(prev), operand, isAdd);
+            next = pack(FactType.NUMBER.ordinal(), Float.floatToRawIntBits(result));
+        } while(!FACT.compareAndSet(cell, prev, next));
+        if(prev == MISSING) {
+            size.incrementAndGet();
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean invertBoolean(final int keyId) {
+        if(keyId == KeyCache.NULL) {
+            return false;
+        }
+        final Cell cell = index.find(keyId);
+        if(cell == null) {
+            return false;
+        }
+        long prev;
+        do {
+            prev = cell.fact;
+            if(typeOf(prev) != FactType.BOOLEAN.ordinal()) {
+                return false;
+            }
+        } while(!FACT.compareAndSet(cell, prev, pack(FactType.BOOLEAN.ordinal(), 1 - bitsOf(prev))));
+        return true;
+    }
+
+    @Override
+    protected void forEachKey(final IntConsumer action) {
+        final Index snapshot = index;
+        for(int i = 0; i < snapshot.keys.length; ++i) {
+            if(snapshot.keys[i] != KeyCache.NULL && snapshot.cells[i].fact != MISSING) {
+                action.accept(snapshot.keys[i]);
+            }
+        }
+    }
+
+    @Override
+    public void forEachSymbol(final IntConsumer action) {
+        final Index snapshot = index;
+        for(Cell cell : snapshot.cells) {
+            if(cell == null) {
+                continue;
+            }
+            final long fact = cell.fact;
+            if(typeOf(fact) == FactType.STRING.ordinal()) {
+                action.accept(bitsOf(fact));
+                continue;
+            }
+            final IntSet list = readList(cell);
+            if(list != null) {
+                final IntIterator iter = list.iterator();
+                while(iter.hasNext()) {
+                    action.accept(iter.nextInt());
+                }
+            }
+        }
+    }
+
+    // Returns the list in the cell, or null if its fact is not a list
+    private static IntSet readList(final Cell cell) {
+        while(true) {
+            final IntSet list = cell.list;
+            if(typeOf(cell.fact) != FactType.LIST.ordinal()) {
+                return null;
+            }
+            // A writer may have published a newer list while the fact was being read, so read both again
+            if(cell.list == list) {
+                return list;
+            }
+        }
+    }
+
+    // Replaces the fact in the cell, keeping the size up to date. Returns the previous fact.
+    private long exchange(final Cell cell, final long fact) {
+        final long prev = (long) FACT.getAndSet(cell, fact);
+        if(prev == MISSING && fact != MISSING) {
+            size.incrementAndGet();
+        } else if(prev != MISSING && fact == MISSING) {
+            size.decrementAndGet();
+        }
+        return prev;
+    }
+
+    private Cell getOrCreateCell(final int keyId) {
+        if(keyId == KeyCache.NULL) {
+            throw new IllegalArgumentException("Error: Cannot set a null key!");
+        }
+        final Cell cell = index.find(keyId);
+        if(cell != null) {
+            return cell;
+        }
+        return createCell(keyId);
+    }
+
+    private synchronized Cell createCell(final int keyId) {
+        // Another writer may have added the key while waiting for the lock
+        final Cell existing = index.find(keyId);
+        if(existing != null) {
+            return existing;
+        }
+        final Cell cell = new Cell();
+        index = index.with(keyId, cell);
+        return cell;
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm(new ContextTable(this));
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private final ContextTable facts;
+
+        private SerializedForm(final ContextTable facts) {
+            this.facts = facts;
+        }
+
+        private Object readResolve() {
+            return new ConcurrentContextTable(facts);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.drakonkinst.contextualdialogue.context;
+
+import io.github.drakonkinst.contextualdialogue.util.KeyCache;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+import java.util.Arrays;
+
+/**
+ * Records which keys of a context table changed, and when.
+ * <p>
+ * Every write to the table increments the journal's version and stamps the
+ * written key with it. Keys are also kept in order of their last change, so
+ * finding the keys changed since a given version only visits those keys.
+ * Removing a key counts as a change.
+ */
+public final class ContextJournal {
+    private static final int SENTINEL = KeyCache.NULL;   // Key ids start at 1, so slot 0 heads the change list
+
+    private long version = 0;
+    // All indexed by key id, growing as needed
+    private long[] modified = new long[16];
+    private int[] prev = new int[16];
+    private int[] next = new int[16];
+
+    ContextJournal() {}
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    // Returns the version at which the key last changed, or 0 if it never changed
+    public synchronized long getLastModified(final int keyId) {
+        if(keyId <= SENTINEL || keyId >= modified.length) {
+            return 0;
+        }
+        return modified[keyId];
+    }
+
+    public synchronized boolean hasChangedSince(final int keyId, final long sinceVersion) {
+        return getLastModified(keyId) > sinceVersion;
+    }
+
+    /**
+     * Returns the keys that changed after the given version,
+     * from least to most recently changed.
+     *
+     * @param sinceVersion A version previously returned by {@link #getVersion()}.
+     * @return An iterator over the ids of the changed keys.
+     */
+    public synchronized IntIterator changedSince(final long sinceVersion) {
+        final IntList changed = new IntArrayList();
+        int keyId = prev[SENTINEL];
+        while(keyId != SENTINEL && modified[keyId] > sinceVersion) {
+            changed.add(keyId);
+            keyId = prev[keyId];
+        }
+        final IntList ordered = new IntArrayList(changed.size());
+        for(int i = changed.size() - 1; i >= 0; --i) {
+            ordered.add(changed.getInt(i));
+        }
+        return ordered.iterator();
+    }
+
+    synchronized void record(final int keyId) {
+        if(keyId <= SENTINEL) {
+            return;
+        }
+        if(keyId >= modified.length) {
+            final int capacity = Math.max(keyId + 1, modified.length << 1);
+            modified = Arrays.copyOf(modified, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+
+        // Move the key to the end of the change list
+        if(modified[keyId] != 0) {
+            next[prev[keyId]] = next[keyId];
+            prev[next[keyId]] = prev[keyId];
+        }
+        final int last = prev[SENTINEL];
+        prev[keyId] = last;
+        next[keyId] = SENTINEL;
+        next[last] = keyId;
+        prev[SENTINEL] = keyId;
+        modified[keyId] = ++version;
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.drakonkinst.contextualdialogue.context;
+
+import io.github.drakonkinst.contextualdialogue.util.KeyCache;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * A reference to a context key, optionally qualified by the table it belongs to.
+ * References are linked once when the speechbank is loaded, resolving the key
+ * to its id in the KeyCache. Unlinked references fall back to looking up the
+ * key by name on every access.
+ */
+public final class ContextKey implements Serializable {
+    private final String table;     // May be null to search the default tables
+    private final String key;
+    private final int tableSlot;
+    private transient int keyId = KeyCache.NULL;
+
+    public ContextKey(final String table, final String key) {
+        this.table = table;
+        this.key = key;
+        this.tableSlot = ContextSet.getSlot(table);
+    }
+
+    // Resolves the key to an id, which is reused by every later lookup
+    public void link() {
+        keyId = KeyCache.cacheKey(key);
+    }
+
+    public boolean isLinked() {
+        return keyId != KeyCache.NULL;
+    }
+
+    // Returns the key id, or KeyCache.NULL if the key is unknown to every context table
+    public int getKeyId() {
+        if(keyId != KeyCache.NULL) {
+            return keyId;
+        }
+        return KeyCache.getId(key);
+    }
+
+    // Returns the key id, assigning one if needed, for callers that write to the key
+    public int cacheKeyId() {
+        if(keyId != KeyCache.NULL) {
+            return keyId;
+        }
+        return KeyCache.cacheKey(key);
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    // Returns the ContextSet slot of the table, which is ANY if no table is specified
+    public int getTableSlot() {
+        return tableSlot;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    // Two references are equal if they name the same key in the same table, whether or not they are linked
+    @Override
+    public boolean equals(final Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof ContextKey other)) {
+            return false;
+        }
+        return key.equals(other.key) && Objects.equals(table, other.table);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hashCode(table) + key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return ContextTable.getDisplayKey(key, table);
+    }
+}
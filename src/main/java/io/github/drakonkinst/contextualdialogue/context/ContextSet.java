@@ -0,0 +1,176 @@
+package io.github.drakonkinst.contextualdialogue.context;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The set of context tables available to a query. The well-known tables are
+ * stored in fixed slots so they can be retrieved without hashing their name,
+ * while any other table is kept in an overflow map.
+ */
+public class ContextSet implements Serializable {
+    public static final int EVENT = 0;
+    public static final int LISTENER = 1;
+    public static final int SPEAKER = 2;
+    public static final int LOCATION = 3;
+    public static final int STRUCTURE = 4;
+    public static final int REGION = 5;
+    public static final int WORLD = 6;
+    public static final int NUM_SLOTS = 7;
+
+    // Slot for keys without a table, which are searched for in priority order
+    public static final int ANY = -1;
+    // Slot for tables outside the well-known ones, which are stored by name
+    public static final int CUSTOM = -2;
+
+    // Names of the well-known tables, indexed by slot. Also the default table priority.
+    public static final String[] SLOT_NAMES = { "event", "listener", "speaker", "location", "structure", "region", "world" };
+
+    public static int getSlot(final String tableName) {
+        if(tableName == null) {
+            return ANY;
+        }
+        return switch(tableName) {
+            case "event" -> EVENT;
+            case "listener" -> LISTENER;
+            case "speaker" -> SPEAKER;
+            case "location" -> LOCATION;
+            case "structure" -> STRUCTURE;
+            case "region" -> REGION;
+            case "world" -> WORLD;
+            default -> CUSTOM;
+        };
+    }
+
+    public static ContextSet fromMap(final Map<String, ContextTable> contexts) {
+        ContextSet contextSet = new ContextSet();
+        for(Map.Entry<String, ContextTable> entry : contexts.entrySet()) {
+            contextSet.put(entry.getKey(), entry.getValue());
+        }
+        return contextSet;
+    }
+
+    private final ContextTable[] tables = new ContextTable[NUM_SLOTS];
+    private Map<String, ContextTable> customTables = null;
+
+    public ContextSet() {}
+
+    // Copies the tables of another set, without copying the tables themselves
+    public ContextSet(final ContextSet other) {
+        System.arraycopy(other.tables, 0, tables, 0, NUM_SLOTS);
+        if(other.customTables != null) {
+            customTables = new HashMap<>(other.customTables);
+        }
+    }
+
+    /**
+     * Returns a copy of this set where the table in the given slot is
+     * replaced by an overlay, so changes made by the query can be
+     * inspected or thrown away without affecting the original table.
+     *
+     * @param slot The slot of the table to overlay.
+     * @return The copied set, or null if there is no table in the slot.
+     */
+    public ContextSet withOverlay(final int slot) {
+        checkSlot(slot);
+        if(tables[slot] == null) {
+            return null;
+        }
+        return new ContextSet(this).put(slot, new OverlayContextTable(tables[slot]));
+    }
+
+    public ContextSet put(final String tableName, final ContextTable table) {
+        if(tableName == null) {
+            throw new IllegalArgumentException("Table name cannot be null");
+        }
+        int slot = getSlot(tableName);
+        if(slot == CUSTOM) {
+            if(customTables == null) {
+                customTables = new HashMap<>();
+            }
+            if(table == null) {
+                customTables.remove(tableName);
+            } else {
+                customTables.put(tableName, table);
+            }
+        } else {
+            tables[slot] = table;
+        }
+        return this;
+    }
+
+    public ContextSet put(final int slot, final ContextTable table) {
+        checkSlot(slot);
+        tables[slot] = table;
+        return this;
+    }
+
+    // ANY and CUSTOM are not real slots, so custom tables must be put by name
+    private static void checkSlot(final int slot) {
+        if(slot < 0 || slot >= NUM_SLOTS) {
+            throw new IllegalArgumentException("Invalid table slot " + slot + ", custom tables must be put by name");
+        }
+    }
+
+    public ContextTable get(final int slot) {
+        return tables[slot];
+    }
+
+    public ContextTable get(final String tableName) {
+        return get(getSlot(tableName), tableName);
+    }
+
+    // Retrieves a table using its precomputed slot, only using the name for custom tables
+    public ContextTable get(final int slot, final String tableName) {
+        if(slot >= 0) {
+            return tables[slot];
+        }
+        if(slot == CUSTOM && customTables != null) {
+            return customTables.get(tableName);
+        }
+        return null;
+    }
+
+    public ContextTable remove(final String tableName) {
+        ContextTable table = get(tableName);
+        put(tableName, null);
+        return table;
+    }
+
+    public void forEach(final BiConsumer<String, ContextTable> consumer) {
+        for(int i = 0; i < NUM_SLOTS; ++i) {
+            if(tables[i] != null) {
+                consumer.accept(SLOT_NAMES[i], tables[i]);
+            }
+        }
+        if(customTables != null) {
+            customTables.forEach(consumer);
+        }
+    }
+
+    // Returns a map from table name to table, for code written before context sets
+    public Map<String, ContextTable> toMap() {
+        final Map<String, ContextTable> contexts = new HashMap<>();
+        forEach(contexts::put);
+        return contexts;
+    }
+
+    public int size() {
+        int size = customTables == null ? 0 : customTables.size();
+        for(ContextTable table : tables) {
+            if(table != null) {
+                ++size;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        forEach((tableName, table) -> sb.append(tableName).append('=').append(table).append('\n'));
+        return sb.toString();
+    }
+}
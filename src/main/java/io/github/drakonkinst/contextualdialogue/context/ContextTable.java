@@ -1,23 +1,85 @@
 package io.github.drakonkinst.contextualdialogue.context;
 
 import io.github.drakonkinst.commonutil.MyLogger;
+import io.github.drakonkinst.contextualdialogue.util.CompactIntSets;
+import io.github.drakonkinst.contextualdialogue.util.KeyCache;
 import io.github.drakonkinst.contextualdialogue.util.StringCache;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
 
 /**
  * Contains the context for an arbitrary object.
  * Context is stored as key-value pairs.
+ * <p>
+ * Keys are interned into ids by the {@link KeyCache} and stored in an
+ * open-addressing table with parallel value and type arrays, so reading
+ * or updating an existing fact does not allocate. Every String-keyed
+ * method has an id-keyed counterpart for callers that resolve their keys
+ * ahead of time.
  */
-public class ContextTable implements Serializable {
+public class ContextTable implements Serializable, StringCache.Holder {
     private static final int TRUE = 1;
     private static final int FALSE = 0;
-    private static final float DEFAULT_VALUE = 0.0f;
+    private static final int DEFAULT_VALUE = 0;
+    private static final int EMPTY = KeyCache.NULL;
+    private static final int MIN_CAPACITY = 4;
+
+    // A fact as returned by lookup(), with the type ordinal in the high word and the 32-bit payload in the low word.
+    // Numbers are stored as raw float bits, while strings and booleans keep their exact int value.
+    protected static final long MISSING = 0L;   // NULL type, since null facts are never stored
+
+    protected static long pack(final int type, final int bits) {
+        return ((long) type << 32) | (bits & 0xFFFFFFFFL);
+    }
+
+    protected static int typeOf(final long fact) {
+        return (int) (fact >>> 32);
+    }
+
+    protected static int bitsOf(final long fact) {
+        return (int) fact;
+    }
+
+    // Returns the payload of the fact as a float, converting exact values
+    protected static float valueOf(final long fact) {
+        if(typeOf(fact) == FactType.NUMBER.ordinal()) {
+            return Float.intBitsToFloat(bitsOf(fact));
+        }
+        return bitsOf(fact);
+    }
+
+    // Returns the payload of the fact as an int, truncating numbers
+    protected static int intValueOf(final long fact) {
+        if(typeOf(fact) == FactType.NUMBER.ordinal()) {
+            return (int) Float.intBitsToFloat(bitsOf(fact));
+        }
+        return bitsOf(fact);
+    }
+
+    // Converts a value to the payload stored for the given type
+    private static int toBits(final float value, final FactType type) {
+        if(type == FactType.NUMBER) {
+            return Float.floatToRawIntBits(value);
+        }
+        return (int) value;
+    }
+
+    private static int toBits(final int value, final FactType type) {
+        if(type == FactType.NUMBER) {
+            return Float.floatToRawIntBits(value);
+        }
+        return value;
+    }
 
     public static int fromBoolean(final boolean flag) {
         if(flag) {
@@ -34,43 +96,113 @@ public class ContextTable implements Serializable {
     }
 
     /**
-     * Caches all given Strings into an IntSet.
+     * Caches all given Strings into an IntSet, using the default StringCache.
      *
      * @param collection A collection of Strings.
      * @return An IntSet containing the cached Strings.
      */
     public static IntSet setOf(final Collection<String> collection) {
-        final IntSet intSet = new IntOpenHashSet(collection.size());
+        return setOf(StringCache.getDefault(), collection);
+    }
+
+    public static IntSet setOf(final StringCache stringCache, final Collection<String> collection) {
+        final int[] values = new int[collection.size()];
+        int i = 0;
         for(final String str : collection) {
-            intSet.add(StringCache.cacheString(str));
+            values[i++] = stringCache.cacheString(str);
         }
-        return intSet;
+        return CompactIntSets.of(values);
     }
 
     /**
-     * Caches all given Strings into an IntSet.
+     * Caches all given Strings into an IntSet, using the default StringCache.
      *
      * @param array An array of Strings.
      * @return An IntSet containing the cached Strings.
      */
     public static IntSet setOf(final String... array) {
-        final IntSet intSet = new IntOpenHashSet(array.length);
-        for(final String str : array) {
-            intSet.add(StringCache.cacheString(str));
+        return setOf(StringCache.getDefault(), array);
+    }
+
+    public static IntSet setOf(final StringCache stringCache, final String... array) {
+        final int[] values = new int[array.length];
+        for(int i = 0; i < array.length; ++i) {
+            values[i] = stringCache.cacheString(array[i]);
         }
-        return intSet;
+        return CompactIntSets.of(values);
     }
 
-    private final Map<String, FactTuple> dictionary = new HashMap<>();
-    private final int cacheId;
-    private Map<String, IntSet> lists = null; // Null to allow for lazy instantiation
+    // Returns the smallest power of two capacity that holds the expected size below the load factor
+    private static int capacityFor(final int expectedSize) {
+        return Math.max(MIN_CAPACITY, HashCommon.nextPowerOfTwo(expectedSize + (expectedSize >> 1) + 1));
+    }
+
+    private static String nameOf(final int keyId, final String key) {
+        if(key != null) {
+            return key;
+        }
+        return KeyCache.lookup(keyId);
+    }
+
+    // Open-addressing layout, all arrays are indexed by slot and allocated on first write
+    private transient int[] keys = null;
+    private transient int[] values = null;
+    private transient byte[] types = null;
+    private transient IntSet[] lists = null; // Null to allow for lazy instantiation
+    private transient long[] expiries = null; // Null until a fact is given a TTL
+    private transient int size = 0;
+    private transient int mask = 0;
+    private transient int initialCapacity;
+    private transient StringCache stringCache;    // Owns the ids of every string fact in this table
+    private transient boolean isTracked = false;    // True once registered with the StringCache for eviction
+    private boolean frozen = false;
+    private transient ContextJournal journal = null;    // Null unless changes are being tracked
 
     public ContextTable() {
-        cacheId = StringCache.getCacheId();
+        this(StringCache.getDefault(), 0);
+    }
+
+    public ContextTable(final int expectedSize) {
+        this(StringCache.getDefault(), expectedSize);
+    }
+
+    // Creates a table whose strings are cached in the given StringCache, which should be the one of the database it is used with
+    public ContextTable(final StringCache stringCache) {
+        this(stringCache, 0);
+    }
+
+    public ContextTable(final StringCache stringCache, final int expectedSize) {
+        if(stringCache == null) {
+            throw new IllegalArgumentException("StringCache cannot be null");
+        }
+        this.stringCache = stringCache;
+        initialCapacity = capacityFor(expectedSize);
+    }
+
+    // Copies the facts of another table into a new table. Lists are shared, not copied.
+    public ContextTable(final ContextTable other) {
+        this(other.getStringCache(), other.size());
+        other.forEachKey(keyId -> {
+            final long fact = other.lookup(keyId);
+            if(fact == MISSING) {
+                return;
+            }
+            if(typeOf(fact) == FactType.LIST.ordinal()) {
+                storeList(keyId, other.lookupList(keyId));
+            } else {
+                store(keyId, bitsOf(fact), FactType.fromOrdinal(typeOf(fact)));
+            }
+
+            // Copies are not scheduled on the ExpiryWheel, so their expired facts are only hidden on read
+            final long deadline = other.getExpiry(keyId);
+            if(deadline != ExpiryWheel.NEVER) {
+                setExpiry(keyId, deadline);
+            }
+        });
     }
 
     /**
-     * Returns the value stored in this key as a raw float,
+     * Returns the value stored in this key as a float,
      * regardless of the type.
      * Throws IllegalArgumentException if the value is null
      * or is a list.
@@ -79,14 +211,29 @@ public class ContextTable implements Serializable {
      * @return The raw float value at the key.
      */
     public float get(final String key) {
-        final FactTuple factTuple = dictionary.get(key);
-        if(factTuple == null) {
-            throw new IllegalArgumentException("Error: \"" + key + "\" does not exist!");
-        }
-        if(factTuple.type == FactType.LIST) {
-            throw new IllegalArgumentException("Error: \"" + key + "\" is a list, value cannot be used!");
-        }
-        return factTuple.value;
+        return getRaw(KeyCache.getId(key), key);
+    }
+
+    public float get(final int keyId) {
+        return getRaw(keyId, null);
+    }
+
+    /**
+     * Returns the value stored in this key as an int, regardless
+     * of the type. Strings and booleans are returned exactly, while
+     * numbers are truncated.
+     * Throws IllegalArgumentException if the value is null
+     * or is a list.
+     *
+     * @param key The key to search.
+     * @return The int value at the key.
+     */
+    public int getAsInt(final String key) {
+        return getInt(KeyCache.getId(key), key);
+    }
+
+    public int getAsInt(final int keyId) {
+        return getInt(keyId, null);
     }
 
     /**
@@ -98,14 +245,11 @@ public class ContextTable implements Serializable {
      * @return The float value at the key.
      */
     public float getAsNumber(final String key) {
-        final FactTuple factTuple = dictionary.get(key);
-        if(factTuple == null) {
-            throw new IllegalArgumentException("Error: \"" + key + "\" does not exist!");
-        }
-        if(factTuple.type != FactType.NUMBER) {
-            throw new IllegalArgumentException("Error: \"" + key + "\" is not a float!");
-        }
-        return factTuple.value;
+        return getNumber(KeyCache.getId(key), key);
+    }
+
+    public float getAsNumber(final int keyId) {
+        return getNumber(keyId, null);
     }
 
     /**
@@ -117,19 +261,11 @@ public class ContextTable implements Serializable {
      * @return The string value at the key.
      */
     public String getAsString(final String key) {
-        final FactTuple factTuple = dictionary.get(key);
-        if(factTuple == null) {
-            throw new IllegalArgumentException("Error: \"" + key + "\" does not exist!");
-        }
-        if(factTuple.type != FactType.STRING) {
-            throw new IllegalArgumentException("Error: \"" + key + "\" is not a string!");
-        }
-        final String lookupString = StringCache.lookup((int) factTuple.value);
+        return getString(KeyCache.getId(key), key);
+    }
 
-        if(lookupString == null) {
-            throw new IllegalStateException("Error: \"" + key + "\" does not exist in StringCache, may be corrupted!");
-        }
-        return lookupString;
+    public String getAsString(final int keyId) {
+        return getString(keyId, null);
     }
 
     /**
@@ -141,14 +277,11 @@ public class ContextTable implements Serializable {
      * @return The boolean value at the key.
      */
     public boolean getAsBoolean(final String key) {
-        final FactTuple factTuple = dictionary.get(key);
-        if(factTuple == null) {
-            throw new IllegalArgumentException("Error: \"" + key + "\" does not exist!");
-        }
-        if(factTuple.type != FactType.BOOLEAN) {
-            throw new IllegalArgumentException("Error: \"" + key + "\" is not a boolean!");
-        }
-        return factTuple.value == ContextTable.TRUE;
+        return getBoolean(KeyCache.getId(key), key);
+    }
+
+    public boolean getAsBoolean(final int keyId) {
+        return getBoolean(keyId, null);
     }
 
     /**
@@ -160,23 +293,11 @@ public class ContextTable implements Serializable {
      * @return The list value at the key.
      */
     public IntSet getAsList(final String key) {
-        if(lists == null) {
-            throw new IllegalStateException("Error: This context table contains no lists!");
-        }
-        final FactTuple tuple = dictionary.get(key);
-        if(tuple.type == null) {
-            throw new IllegalArgumentException("Error: \"" + key + "\" does not exist!");
-        }
-        if(tuple.type != FactType.LIST) {
-            throw new IllegalArgumentException("Error: \"" + key + "\" is not a list!");
-        }
-
-        final IntSet list = lists.get(key);
-        if(list == null) {
-            throw new IllegalArgumentException("Error: \"" + key + "\" exists and is the correct type, but list data is corrupted!");
-        }
+        return getList(KeyCache.getId(key), key);
+    }
 
-        return list;
+    public IntSet getAsList(final int keyId) {
+        return getList(keyId, null);
     }
 
     // Returns true if the value at the key is not null and is a number
@@ -199,48 +320,102 @@ public class ContextTable implements Serializable {
         return contains(key, FactType.LIST);
     }
 
+    public boolean isNumber(final int keyId) {
+        return contains(keyId, FactType.NUMBER);
+    }
+
+    public boolean isString(final int keyId) {
+        return contains(keyId, FactType.STRING);
+    }
+
+    public boolean isBoolean(final int keyId) {
+        return contains(keyId, FactType.BOOLEAN);
+    }
+
+    public boolean isList(final int keyId) {
+        return contains(keyId, FactType.LIST);
+    }
+
     // Returns the type of the value at the key
     public FactType getType(final String key) {
-        final FactTuple factTuple = dictionary.get(key);
-        if(factTuple == null) {
-            return FactType.NULL;
-        }
-        return factTuple.type;
+        return getType(KeyCache.getId(key));
+    }
+
+    public FactType getType(final int keyId) {
+        return FactType.fromOrdinal(typeOf(lookup(keyId)));
     }
 
     public boolean contains(final String key) {
-        return dictionary.containsKey(key);
+        return contains(KeyCache.getId(key));
+    }
+
+    public boolean contains(final int keyId) {
+        return lookup(keyId) != MISSING;
     }
 
     public boolean contains(final String key, final FactType dataType) {
-        final FactTuple factTuple = dictionary.get(key);
-        return factTuple != null && factTuple.type == dataType;
+        return contains(KeyCache.getId(key), dataType);
+    }
+
+    public boolean contains(final int keyId, final FactType dataType) {
+        return typeOf(lookup(keyId)) == dataType.ordinal();
     }
 
     // Returns itself for method chaining
     public ContextTable set(final String key, final float value, final FactType type) {
+        return set(KeyCache.cacheKey(key), value, type);
+    }
+
+    public ContextTable set(final int keyId, final float value, final FactType type) {
+        return setBits(keyId, toBits(value, type), type);
+    }
+
+    // Strings and booleans are stored exactly, rather than passing through a float
+    public ContextTable set(final String key, final int value, final FactType type) {
+        return set(KeyCache.cacheKey(key), value, type);
+    }
+
+    public ContextTable set(final int keyId, final int value, final FactType type) {
+        return setBits(keyId, toBits(value, type), type);
+    }
+
+    // Sets the key to a fact copied from another table
+    protected ContextTable setFact(final int keyId, final long fact) {
+        return setBits(keyId, bitsOf(fact), FactType.fromOrdinal(typeOf(fact)));
+    }
+
+    private ContextTable setBits(final int keyId, final int bits, final FactType type) {
         if(type == FactType.LIST || type == FactType.NULL) {
             throw new IllegalArgumentException("Cannot set item to type " + type.name() + " using generic set method!");
         }
-        dictionary.put(key, new FactTuple(type, value));
-        MyLogger.finest("Set " + key + " = " + value);
+        checkMutable();
+        store(keyId, bits, type);
+        recordChange(keyId);
+        if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+            MyLogger.finest("Set " + KeyCache.lookup(keyId) + " = " + valueOf(pack(type.ordinal(), bits)));
+        }
         return this;
     }
 
     public ContextTable set(final String key, final Collection<String> list) {
-        final IntSet intSet = setOf(list);
+        final IntSet intSet = setOf(stringCache, list);
         return set(key, intSet);
     }
 
     public ContextTable set(final String key, final IntSet list) {
-        // Lazy instantiation of lists variable
-        if(lists == null) {
-            lists = new HashMap<>();
-        }
+        return set(KeyCache.cacheKey(key), list);
+    }
 
-        dictionary.put(key, new FactTuple(FactType.LIST, DEFAULT_VALUE));
-        lists.put(key, list);
-        MyLogger.finest("Set " + key + " = " + list.toString());
+    public ContextTable set(final int keyId, final IntSet list) {
+        if(list == null) {
+            throw new IllegalArgumentException("Cannot set item to a null list!");
+        }
+        checkMutable();
+        storeList(keyId, list);
+        recordChange(keyId);
+        if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+            MyLogger.finest("Set " + KeyCache.lookup(keyId) + " = " + list.toString());
+        }
         return this;
     }
 
@@ -249,8 +424,18 @@ public class ContextTable implements Serializable {
         return this;
     }
 
+    public ContextTable set(final int keyId, final float value) {
+        set(keyId, value, FactType.NUMBER);
+        return this;
+    }
+
     public ContextTable set(final String key, final String value) {
-        set(key, StringCache.cacheString(value), FactType.STRING);
+        set(key, stringCache.cacheString(value), FactType.STRING);
+        return this;
+    }
+
+    public ContextTable set(final int keyId, final String value) {
+        set(keyId, stringCache.cacheString(value), FactType.STRING);
         return this;
     }
 
@@ -259,46 +444,176 @@ public class ContextTable implements Serializable {
         return this;
     }
 
+    public ContextTable set(final int keyId, final boolean flag) {
+        set(keyId, fromBoolean(flag), FactType.BOOLEAN);
+        return this;
+    }
+
+    /**
+     * Sets the value of the key for a limited time, after which it is
+     * treated as absent. Setting the key again without a TTL makes it
+     * permanent.
+     *
+     * @param key The key to set.
+     * @param value The value to set.
+     * @param ttl The number of ExpiryWheel ticks until the value expires.
+     * @return Itself for method chaining.
+     */
+    public ContextTable set(final String key, final float value, final long ttl) {
+        return set(KeyCache.cacheKey(key), value, ttl);
+    }
+
+    public ContextTable set(final int keyId, final float value, final long ttl) {
+        set(keyId, value);
+        return expireAfter(keyId, ttl);
+    }
+
+    public ContextTable set(final String key, final String value, final long ttl) {
+        return set(KeyCache.cacheKey(key), value, ttl);
+    }
+
+    public ContextTable set(final int keyId, final String value, final long ttl) {
+        set(keyId, value);
+        return expireAfter(keyId, ttl);
+    }
+
+    public ContextTable set(final String key, final boolean flag, final long ttl) {
+        return set(KeyCache.cacheKey(key), flag, ttl);
+    }
+
+    public ContextTable set(final int keyId, final boolean flag, final long ttl) {
+        set(keyId, flag);
+        return expireAfter(keyId, ttl);
+    }
+
+    // Makes an existing fact expire after the given number of ticks. Returns itself for method chaining.
+    public ContextTable expireAfter(final String key, final long ttl) {
+        return expireAfter(KeyCache.getId(key), ttl);
+    }
+
+    public ContextTable expireAfter(final int keyId, final long ttl) {
+        return expireAt(keyId, ExpiryWheel.getInstance().deadlineAfter(ttl));
+    }
+
+    // Returns the tick at which the fact at the key expires, or ExpiryWheel.NEVER if it is permanent
+    public long getExpiry(final String key) {
+        return getExpiry(KeyCache.getId(key));
+    }
+
     public ContextTable remove(final String key) {
-        final FactTuple tuple = dictionary.get(key);
-        if(tuple.type == FactType.LIST) {
-            lists.remove(key);
+        return remove(KeyCache.getId(key));
+    }
+
+    public ContextTable remove(final int keyId) {
+        checkMutable();
+        if(delete(keyId)) {
+            recordChange(keyId);
         }
-        dictionary.remove(key);
         return this;
     }
 
-    public boolean isOutdated() {
-        return cacheId != StringCache.getCacheId();
+    /**
+     * Adds to the number stored in this key as a single update,
+     * treating a missing value as 0.
+     *
+     * @param keyId The key to update.
+     * @param delta The value to add.
+     * @return False if the value exists but is not a number.
+     */
+    public boolean add(final int keyId, final float delta) {
+        checkMutable();
+        return recordChange(keyId, modifyNumber(keyId, delta, true));
+    }
+
+    /**
+     * Multiplies the number stored in this key as a single update,
+     * treating a missing value as 0.
+     *
+     * @param keyId The key to update.
+     * @param factor The value to multiply by.
+     * @return False if the value exists but is not a number.
+     */
+    public boolean multiply(final int keyId, final float factor) {
+        checkMutable();
+        return recordChange(keyId, modifyNumber(keyId, factor, false));
+    }
+
+    /**
+     * Inverts the boolean stored in this key as a single update.
+     *
+     * @param keyId The key to update.
+     * @return False if the value does not exist or is not a boolean.
+     */
+    public boolean invert(final int keyId) {
+        checkMutable();
+        return recordChange(keyId, invertBoolean(keyId));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Makes this table read-only, so that it can be safely shared between threads. Returns itself for method chaining.
+    public ContextTable freeze() {
+        frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Starts tracking changes to this table, if it is not already.
+     * Only changes made after this call are recorded, so tables shared
+     * between threads should enable it before they are shared. Changes
+     * to the archetypes of a table are not recorded in its journal.
+     *
+     * @return The journal recording changes to this table.
+     */
+    public synchronized ContextJournal enableJournal() {
+        if(journal == null) {
+            journal = new ContextJournal();
+        }
+        return journal;
+    }
+
+    // Returns the journal recording changes to this table, or null if changes are not tracked
+    public ContextJournal getJournal() {
+        return journal;
+    }
+
+    public StringCache getStringCache() {
+        return stringCache;
     }
 
     @Override
     public String toString() {
         final int LENGTH = 15;
         final StringBuilder result = new StringBuilder("ContextTable:\n");
-        for(final Map.Entry<String, FactTuple> entry : dictionary.entrySet()) {
-            final String key = entry.getKey();
-            final FactTuple tuple = entry.getValue();
+        forEachKey(keyId -> {
+            final String key = KeyCache.lookup(keyId);
+            final FactType type = getType(keyId);
             result.append(" ".repeat(Math.max(0, LENGTH - key.length())));
             result.append(key);
 
             result.append(" = ");
-            if(tuple.type == FactType.STRING) {
+            if(type == FactType.STRING) {
                 result.append(getAsString(key));
-            } else if(tuple.type == FactType.BOOLEAN) {
+            } else if(type == FactType.BOOLEAN) {
                 result.append(getAsBoolean(key));
-            } else if(tuple.type == FactType.NUMBER) {
+            } else if(type == FactType.NUMBER) {
                 result.append(getAsNumber(key));
-            } else if(tuple.type == FactType.NULL) {
+            } else if(type == FactType.NULL) {
                 result.append("NULL");
-            } else if(tuple.type == FactType.LIST) {
+            } else if(type == FactType.LIST) {
                 // Make a best guess as to what's a string or not
-                final IntSet set = lists.get(key);
+                final IntSet set = lookupList(keyId);
                 result.append("[ ");
                 int i = 0;
                 for(int item : set) {
                     if(item >= StringCache.INITIAL_ID) {
-                        result.append(StringCache.lookup(item));
+                        result.append(stringCache.lookup(item));
                     } else {
                         result.append(item);
                     }
@@ -309,9 +624,466 @@ public class ContextTable implements Serializable {
                 result.append(" ]");
             }
             result.append("\n");
-        }
+        });
         return result.toString();
     }
 
-    private record FactTuple(FactType type, float value) {}
+    /* Typed reads */
+
+    private long requireFact(final int keyId, final String key) {
+        final long fact = lookup(keyId);
+        if(fact == MISSING) {
+            throw new IllegalArgumentException("Error: \"" + nameOf(keyId, key) + "\" does not exist!");
+        }
+        return fact;
+    }
+
+    private float getRaw(final int keyId, final String key) {
+        final long fact = requireFact(keyId, key);
+        if(typeOf(fact) == FactType.LIST.ordinal()) {
+            throw new IllegalArgumentException("Error: \"" + nameOf(keyId, key) + "\" is a list, value cannot be used!");
+        }
+        return valueOf(fact);
+    }
+
+    private int getInt(final int keyId, final String key) {
+        final long fact = requireFact(keyId, key);
+        if(typeOf(fact) == FactType.LIST.ordinal()) {
+            throw new IllegalArgumentException("Error: \"" + nameOf(keyId, key) + "\" is a list, value cannot be used!");
+        }
+        return intValueOf(fact);
+    }
+
+    private float getNumber(final int keyId, final String key) {
+        final long fact = requireFact(keyId, key);
+        if(typeOf(fact) != FactType.NUMBER.ordinal()) {
+            throw new IllegalArgumentException("Error: \"" + nameOf(keyId, key) + "\" is not a float!");
+        }
+        return valueOf(fact);
+    }
+
+    private String getString(final int keyId, final String key) {
+        final long fact = requireFact(keyId, key);
+        if(typeOf(fact) != FactType.STRING.ordinal()) {
+            throw new IllegalArgumentException("Error: \"" + nameOf(keyId, key) + "\" is not a string!");
+        }
+        final String lookupString = stringCache.lookup(bitsOf(fact));
+
+        if(lookupString == null) {
+            throw new IllegalStateException("Error: \"" + nameOf(keyId, key) + "\" does not exist in StringCache, may be corrupted!");
+        }
+        return lookupString;
+    }
+
+    private boolean getBoolean(final int keyId, final String key) {
+        final long fact = requireFact(keyId, key);
+        if(typeOf(fact) != FactType.BOOLEAN.ordinal()) {
+            throw new IllegalArgumentException("Error: \"" + nameOf(keyId, key) + "\" is not a boolean!");
+        }
+        return bitsOf(fact) == ContextTable.TRUE;
+    }
+
+    private IntSet getList(final int keyId, final String key) {
+        // Read the list once, so a concurrent overwrite cannot change the fact between checking its type and reading it
+        final IntSet list = lookupList(keyId);
+        if(list != null) {
+            return list;
+        }
+        requireFact(keyId, key);
+        throw new IllegalArgumentException("Error: \"" + nameOf(keyId, key) + "\" is not a list!");
+    }
+
+    ContextTable expireAt(final int keyId, final long deadline) {
+        checkMutable();
+        if(lookup(keyId) == MISSING) {
+            throw new IllegalArgumentException("Error: \"" + KeyCache.lookup(keyId) + "\" does not exist!");
+        }
+        setExpiry(keyId, deadline);
+        if(deadline != ExpiryWheel.NEVER) {
+            ExpiryWheel.getInstance().schedule(this, keyId, deadline);
+        }
+        return this;
+    }
+
+    // Called by the ExpiryWheel once the deadline passes. Frozen tables rely on their expired facts being hidden on read.
+    // The wheel may have clamped the deadline forward, so only a later deadline means the fact was given a new TTL.
+    void expire(final int keyId, final long deadline) {
+        if(frozen || getExpiry(keyId) > deadline) {
+            return;
+        }
+        if(removeExpired(keyId, deadline)) {
+            recordChange(keyId);
+        }
+    }
+
+    // Records that the key changed through some path other than the public setters
+    protected void recordChange(final int keyId) {
+        if(journal != null) {
+            journal.record(keyId);
+        }
+    }
+
+    private boolean recordChange(final int keyId, final boolean changed) {
+        if(changed && journal != null) {
+            journal.record(keyId);
+        }
+        return changed;
+    }
+
+    private void checkMutable() {
+        if(frozen) {
+            throw new IllegalStateException("Error: Cannot modify a frozen context table!");
+        }
+    }
+
+    /* Storage, which subclasses can override to change where facts are kept */
+
+    // Returns the packed fact for the key, or MISSING if it is not present
+    protected long lookup(final int keyId) {
+        final int slot = findSlot(keyId);
+        if(slot < 0 || isExpired(slot)) {
+            return MISSING;
+        }
+        return pack(types[slot], values[slot]);
+    }
+
+    // Returns the list stored at the key, or null if the key is not a list
+    protected IntSet lookupList(final int keyId) {
+        final int slot = findSlot(keyId);
+        if(slot < 0 || lists == null || isExpired(slot)) {
+            return null;
+        }
+        return lists[slot];
+    }
+
+    // Stores a fact with the given payload, which is raw float bits for numbers. Any TTL is cleared.
+    protected void store(final int keyId, final int bits, final FactType type) {
+        if(type == FactType.STRING) {
+            trackStrings();
+        }
+        final int slot = insertSlot(keyId);
+        values[slot] = bits;
+        types[slot] = (byte) type.ordinal();
+        if(lists != null) {
+            lists[slot] = null;
+        }
+        if(expiries != null) {
+            expiries[slot] = ExpiryWheel.NEVER;
+        }
+    }
+
+    protected void storeList(final int keyId, final IntSet list) {
+        trackStrings();
+        final int slot = insertSlot(keyId);
+
+        // Lazy instantiation of lists variable
+        if(lists == null) {
+            lists = new IntSet[keys.length];
+        }
+
+        values[slot] = DEFAULT_VALUE;
+        types[slot] = (byte) FactType.LIST.ordinal();
+        lists[slot] = list;
+        if(expiries != null) {
+            expiries[slot] = ExpiryWheel.NEVER;
+        }
+    }
+
+    // Sets the tick at which an existing fact expires
+    protected void setExpiry(final int keyId, final long deadline) {
+        final int slot = findSlot(keyId);
+        if(slot < 0) {
+            return;
+        }
+        if(expiries == null) {
+            if(deadline == ExpiryWheel.NEVER) {
+                return;
+            }
+            expiries = new long[keys.length];
+            Arrays.fill(expiries, ExpiryWheel.NEVER);
+        }
+        expiries[slot] = deadline;
+    }
+
+    public long getExpiry(final int keyId) {
+        final int slot = findSlot(keyId);
+        if(slot < 0 || expiries == null) {
+            return ExpiryWheel.NEVER;
+        }
+        return expiries[slot];
+    }
+
+    // Removes a fact whose TTL has passed at the given deadline, returning true if it was present
+    protected boolean removeExpired(final int keyId, final long deadline) {
+        return delete(keyId);
+    }
+
+    // Returns true if the key was present
+    protected boolean delete(final int keyId) {
+        final int slot = findSlot(keyId);
+        if(slot < 0) {
+            return false;
+        }
+        removeSlot(slot);
+        return true;
+    }
+
+    // Removes every fact from this table's own storage
+    protected void clearStorage() {
+        keys = null;
+        values = null;
+        types = null;
+        lists = null;
+        expiries = null;
+        size = 0;
+        mask = 0;
+    }
+
+    // Read-modify-write operations, which thread-safe subclasses override to make atomic
+    protected boolean modifyNumber(final int keyId, final float operand, final boolean isAdd) {
+        final long fact = lookup(keyId);
+        if(fact != MISSING && typeOf(fact) != FactType.NUMBER.ordinal()) {
+            return false;
+        }
+        store(keyId, Float.floatToRawIntBits(applyArithmetic(valueOf(fact), operand, isAdd)), FactType.NUMBER);
+        return true;
+    }
+
+    protected boolean invertBoolean(final int keyId) {
+        final long fact = lookup(keyId);
+        if(typeOf(fact) != FactType.BOOLEAN.ordinal()) {
+            return false;
+        }
+        store(keyId, TRUE - bitsOf(fact), FactType.BOOLEAN);
+        return true;
+    }
+
+    protected static float applyArithmetic(final float value, final float operand, final boolean isAdd) {
+        if(isAdd) {
+            return value + operand;
+        }
+        return value * operand;
+    }
+
+    // Registers this table with its StringCache the first time it stores a string that could be evicted
+    protected final void trackStrings() {
+        if(!isTracked && stringCache.isEvicting()) {
+            isTracked = true;
+            stringCache.track(this);
+        }
+    }
+
+    // Visits every string and list item in this table's own storage, including facts that have expired but not been removed
+    @Override
+    public void forEachSymbol(final IntConsumer action) {
+        if(keys == null) {
+            return;
+        }
+        for(int slot = 0; slot < keys.length; ++slot) {
+            if(keys[slot] == EMPTY) {
+                continue;
+            }
+            if(types[slot] == FactType.STRING.ordinal()) {
+                action.accept(values[slot]);
+            } else if(types[slot] == FactType.LIST.ordinal() && lists[slot] != null) {
+                final IntIterator iter = lists[slot].iterator();
+                while(iter.hasNext()) {
+                    action.accept(iter.nextInt());
+                }
+            }
+        }
+    }
+
+    protected void forEachKey(final IntConsumer action) {
+        if(keys == null) {
+            return;
+        }
+        for(int slot = 0; slot < keys.length; ++slot) {
+            if(keys[slot] != EMPTY && !isExpired(slot)) {
+                action.accept(keys[slot]);
+            }
+        }
+    }
+
+    private boolean isExpired(final int slot) {
+        return expiries != null && expiries[slot] <= ExpiryWheel.getInstance().now();
+    }
+
+    /* Open addressing */
+
+    // Returns the slot holding the key, or -1 if it is not present
+    private int findSlot(final int keyId) {
+        if(keyId == EMPTY || size == 0) {
+            return -1;
+        }
+        int slot = HashCommon.mix(keyId) & mask;
+        int current;
+        while((current = keys[slot]) != EMPTY) {
+            if(current == keyId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Returns the slot holding the key, claiming a new one if it is not present
+    private int insertSlot(final int keyId) {
+        if(keyId == EMPTY) {
+            throw new IllegalArgumentException("Error: Cannot set a null key!");
+        }
+        if(keys == null) {
+            allocate(initialCapacity);
+        }
+        int slot = HashCommon.mix(keyId) & mask;
+        int current;
+        while((current = keys[slot]) != EMPTY) {
+            if(current == keyId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Grow at 2/3 load, which keeps probe sequences short for small tables
+        if(3 * (size + 1) > 2 * keys.length) {
+            rehash(keys.length << 1);
+            return insertSlot(keyId);
+        }
+        keys[slot] = keyId;
+        ++size;
+        return slot;
+    }
+
+    // Removes the slot by shifting back the following entries in its probe sequence, so no tombstones are needed
+    private void removeSlot(int slot) {
+        --size;
+        int last;
+        int current;
+        while(true) {
+            slot = ((last = slot) + 1) & mask;
+            while(true) {
+                if((current = keys[slot]) == EMPTY) {
+                    keys[last] = EMPTY;
+                    if(lists != null) {
+                        lists[last] = null;
+                    }
+                    if(expiries != null) {
+                        expiries[last] = ExpiryWheel.NEVER;
+                    }
+                    return;
+                }
+                final int home = HashCommon.mix(current) & mask;
+                if(last <= slot ? last >= home || home > slot : last >= home && home > slot) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[last] = current;
+            values[last] = values[slot];
+            types[last] = types[slot];
+            if(lists != null) {
+                lists[last] = lists[slot];
+            }
+            if(expiries != null) {
+                expiries[last] = expiries[slot];
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        types = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(final int capacity) {
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+        final byte[] oldTypes = types;
+        final IntSet[] oldLists = lists;
+        final long[] oldExpiries = expiries;
+
+        allocate(capacity);
+        if(oldLists != null) {
+            lists = new IntSet[capacity];
+        }
+        if(oldExpiries != null) {
+            expiries = new long[capacity];
+            Arrays.fill(expiries, ExpiryWheel.NEVER);
+        }
+        for(int i = 0; i < oldKeys.length; ++i) {
+            final int keyId = oldKeys[i];
+            if(keyId == EMPTY) {
+                continue;
+            }
+            int slot = HashCommon.mix(keyId) & mask;
+            while(keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = keyId;
+            values[slot] = oldValues[i];
+            types[slot] = oldTypes[i];
+            if(oldLists != null) {
+                lists[slot] = oldLists[i];
+            }
+            if(oldExpiries != null) {
+                expiries[slot] = oldExpiries[i];
+            }
+        }
+    }
+
+    /* Serialization */
+
+    // Key ids are only meaningful within a process, so facts are written out by key name.
+    // Deadlines are written as the time remaining, since ticks are also only meaningful within a process.
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        if(keys == null) {
+            return;
+        }
+        for(int slot = 0; slot < keys.length; ++slot) {
+            if(keys[slot] == EMPTY) {
+                continue;
+            }
+            out.writeUTF(KeyCache.lookup(keys[slot]));
+            out.writeByte(types[slot]);
+            out.writeInt(values[slot]);
+            if(types[slot] == FactType.LIST.ordinal()) {
+                out.writeObject(lists[slot]);
+            }
+            if(expiries == null || expiries[slot] == ExpiryWheel.NEVER) {
+                out.writeLong(ExpiryWheel.NEVER);
+            } else {
+                out.writeLong(Math.max(0, expiries[slot] - ExpiryWheel.getInstance().now()));
+            }
+        }
+    }
+
+    // String ids are read back as they were written, so they are only meaningful if the default cache matches
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        stringCache = StringCache.getDefault();
+        final int numFacts = in.readInt();
+        initialCapacity = capacityFor(numFacts);
+        for(int i = 0; i < numFacts; ++i) {
+            final int keyId = KeyCache.cacheKey(in.readUTF());
+            final FactType type = FactType.fromOrdinal(in.readByte());
+            final int bits = in.readInt();
+            if(type == FactType.LIST) {
+                storeList(keyId, (IntSet) in.readObject());
+            } else {
+                store(keyId, bits, type);
+            }
+            final long ttl = in.readLong();
+            if(ttl != ExpiryWheel.NEVER) {
+                final long deadline = ExpiryWheel.getInstance().deadlineAfter(ttl);
+                setExpiry(keyId, deadline);
+                if(deadline != ExpiryWheel.NEVER) {
+                    ExpiryWheel.getInstance().schedule(this, keyId, deadline);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,163 @@
+package io.github.drakonkinst.contextualdialogue.context;
+
+/**
+ * Keeps track of when expiring facts should be removed from their tables.
+ * <p>
+ * Time is measured in ticks, which only move forward when the application
+ * advances the wheel, so a tick can be a game tick or a millisecond as long
+ * as every TTL uses the same unit. Facts are treated as absent as soon as
+ * their deadline passes, even before the wheel gets to them; the wheel only
+ * reclaims their storage, in batches as it advances.
+ * <p>
+ * Deadlines are sorted into a hierarchy of wheels, where each level covers 64
+ * times the range of the one below it. A deadline is placed in the lowest
+ * level that can hold it and moves down a level each time that level wraps
+ * around, so scheduling and expiring a fact both take constant time.
+ */
+public final class ExpiryWheel {
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private static final int BITS_PER_LEVEL = 6;
+    private static final int SLOTS_PER_LEVEL = 1 << BITS_PER_LEVEL;
+    private static final int SLOT_MASK = SLOTS_PER_LEVEL - 1;
+    private static final int NUM_LEVELS = 4;
+
+    private static final ExpiryWheel INSTANCE = new ExpiryWheel();
+
+    public static ExpiryWheel getInstance() {
+        return INSTANCE;
+    }
+
+    private static final class Entry {
+        private final ContextTable table;
+        private final int keyId;
+        private final long deadline;
+        private Entry next;
+
+        private Entry(final ContextTable table, final int keyId, final long deadline) {
+            this.table = table;
+            this.keyId = keyId;
+            this.deadline = deadline;
+        }
+    }
+
+    private final Entry[][] levels = new Entry[NUM_LEVELS][SLOTS_PER_LEVEL];
+    private final long[] occupied = new long[NUM_LEVELS];  // Bit i is set if slot i of the level is not empty
+    private Entry overflow = null;  // Deadlines beyond the range of the top level
+    private int numScheduled = 0;
+    private volatile long now = 0;
+
+    private ExpiryWheel() {}
+
+    public long now() {
+        return now;
+    }
+
+    // Returns the tick that is the given number of ticks from now, or NEVER if that is too far away to represent
+    public long deadlineAfter(final long ttl) {
+        final long time = now;
+        return ttl >= NEVER - time ? NEVER : time + ttl;
+    }
+
+    public synchronized int getNumScheduled() {
+        return numScheduled;
+    }
+
+    /**
+     * Moves time forward, removing every fact whose deadline has passed.
+     *
+     * @param ticks The number of ticks to advance by.
+     */
+    public void advance(final long ticks) {
+        if(ticks < 0) {
+            throw new IllegalArgumentException("Error: Cannot move time backwards!");
+        }
+        advanceTo(now + ticks);
+    }
+
+    public synchronized void advanceTo(final long time) {
+        if(time < now) {
+            throw new IllegalArgumentException("Error: Cannot move time backwards!");
+        }
+        while(now < time) {
+            if(numScheduled == 0) {
+                now = time;
+                return;
+            }
+            if(occupied[0] == 0L) {
+                // Nothing can expire before the lowest level wraps around, so skip to just before it does
+                final long skipTo = now | SLOT_MASK;
+                if(skipTo >= time) {
+                    now = time;
+                    return;
+                }
+                now = skipTo;
+            }
+            tick();
+        }
+    }
+
+    // Schedules the fact to be removed once the deadline passes
+    synchronized void schedule(final ContextTable table, final int keyId, final long deadline) {
+        insert(new Entry(table, keyId, Math.max(deadline, now + 1)));
+        ++numScheduled;
+    }
+
+    private void tick() {
+        final long time = now + 1;
+        now = time;
+
+        // Move deadlines down from every level that wraps around at this tick, highest first
+        int wrapped = 0;
+        while(wrapped < NUM_LEVELS && (time & ((1L << (BITS_PER_LEVEL * (wrapped + 1))) - 1)) == 0) {
+            ++wrapped;
+        }
+        if(wrapped == NUM_LEVELS) {
+            Entry entry = overflow;
+            overflow = null;
+            reinsert(entry);
+        }
+        for(int level = Math.min(wrapped, NUM_LEVELS - 1); level >= 1; --level) {
+            final int slot = (int) (time >>> (BITS_PER_LEVEL * level)) & SLOT_MASK;
+            reinsert(take(level, slot));
+        }
+
+        Entry entry = take(0, (int) time & SLOT_MASK);
+        while(entry != null) {
+            final Entry next = entry.next;
+            entry.table.expire(entry.keyId, entry.deadline);
+            --numScheduled;
+            entry = next;
+        }
+    }
+
+    private void insert(final Entry entry) {
+        final long delta = entry.deadline - now;
+        for(int level = 0; level < NUM_LEVELS; ++level) {
+            if(delta < 1L << (BITS_PER_LEVEL * (level + 1))) {
+                final int slot = (int) (entry.deadline >>> (BITS_PER_LEVEL * level)) & SLOT_MASK;
+                entry.next = levels[level][slot];
+                levels[level][slot] = entry;
+                occupied[level] |= 1L << slot;
+                return;
+            }
+        }
+        entry.next = overflow;
+        overflow = entry;
+    }
+
+    private void reinsert(Entry entry) {
+        while(entry != null) {
+            final Entry next = entry.next;
+            insert(entry);
+            entry = next;
+        }
+    }
+
+    private Entry take(final int level, final int slot) {
+        final Entry entry = levels[level][slot];
+        levels[level][slot] = null;
+        occupied[level] &= ~(1L << slot);
+        return entry;
+    }
+}
@@ -5,5 +5,12 @@ public enum FactType {
     STRING,
     NUMBER,
     BOOLEAN,
-    LIST
+    LIST;
+
+    private static final FactType[] VALUES = values();
+
+    // Avoids the array copy made by values()
+    public static FactType fromOrdinal(final int ordinal) {
+        return VALUES[ordinal];
+    }
 }
@@ -0,0 +1,201 @@
+package io.github.drakonkinst.contextualdialogue.context;
+
+import io.github.drakonkinst.contextualdialogue.util.StringCache;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A context table that reads the facts it does not store from one or more
+ * tables layered below it.
+ * <p>
+ * Only the facts set on this table are stored in it. A fact is read from this
+ * table first, then from each layer in order, and removing a fact that a layer
+ * contains hides it from this table only. Layers are never copied, so they
+ * should not be modified while this table is in use.
+ */
+public abstract class LayeredContextTable extends ContextTable {
+    private final ContextTable[] layers;
+    private IntSet removedKeys = null;  // Keys removed from this table that may still exist in a layer
+
+    /**
+     * Creates a table over the given layers. The array is not copied,
+     * so the same array can be shared by every table with the same layers.
+     *
+     * @param layers The layers, in the order they are searched.
+     */
+    protected LayeredContextTable(final ContextTable... layers) {
+        super(getSharedStringCache(layers));
+        this.layers = layers;
+    }
+
+    // Inherited string facts are only meaningful if every table caches its strings in the same place
+    private static StringCache getSharedStringCache(final ContextTable[] layers) {
+        StringCache stringCache = null;
+        for(ContextTable layer : layers) {
+            if(layer == null) {
+                throw new IllegalArgumentException("Layer cannot be null");
+            }
+            if(stringCache == null) {
+                stringCache = layer.getStringCache();
+            } else if(stringCache != layer.getStringCache()) {
+                throw new IllegalArgumentException("Layers must use the same StringCache");
+            }
+        }
+        if(stringCache == null) {
+            return StringCache.getDefault();
+        }
+        return stringCache;
+    }
+
+    public ContextTable getLayer(final int index) {
+        return layers[index];
+    }
+
+    public int getNumLayers() {
+        return layers.length;
+    }
+
+    // Returns the number of facts set or removed on this table itself
+    public int getNumOverrides() {
+        return super.size() + (removedKeys == null ? 0 : removedKeys.size());
+    }
+
+    @Override
+    public int size() {
+        final int[] size = new int[1];
+        forEachKey(keyId -> ++size[0]);
+        return size[0];
+    }
+
+    @Override
+    protected long lookup(final int keyId) {
+        final long fact = super.lookup(keyId);
+        if(fact != MISSING || isRemoved(keyId)) {
+            return fact;
+        }
+        for(ContextTable layer : layers) {
+            final long inherited = layer.lookup(keyId);
+            if(inherited != MISSING) {
+                return inherited;
+            }
+        }
+        return MISSING;
+    }
+
+    @Override
+    protected IntSet lookupList(final int keyId) {
+        if(super.lookup(keyId) != MISSING) {
+            return super.lookupList(keyId);
+        }
+        if(isRemoved(keyId)) {
+            return null;
+        }
+        for(ContextTable layer : layers) {
+            if(layer.lookup(keyId) != MISSING) {
+                return layer.lookupList(keyId);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void store(final int keyId, final int bits, final FactType type) {
+        super.store(keyId, bits, type);
+        if(removedKeys != null) {
+            removedKeys.remove(keyId);
+        }
+    }
+
+    @Override
+    protected void storeList(final int keyId, final IntSet list) {
+        super.storeList(keyId, list);
+        if(removedKeys != null) {
+            removedKeys.remove(keyId);
+        }
+    }
+
+    @Override
+    protected boolean delete(final int keyId) {
+        final boolean existed = lookup(keyId) != MISSING;
+        super.delete(keyId);
+        if(isInherited(keyId)) {
+            if(removedKeys == null) {
+                removedKeys = new IntOpenHashSet();
+            }
+            removedKeys.add(keyId);
+        }
+        return existed;
+    }
+
+    @Override
+    public long getExpiry(final int keyId) {
+        // Read the own slot directly, since lookup hides an override that has expired but not been reclaimed yet
+        final long deadline = super.getExpiry(keyId);
+        if(deadline != ExpiryWheel.NEVER || super.lookup(keyId) != MISSING) {
+            return deadline;
+        }
+        if(isRemoved(keyId)) {
+            return ExpiryWheel.NEVER;
+        }
+        for(ContextTable layer : layers) {
+            if(layer.lookup(keyId) != MISSING) {
+                return layer.getExpiry(keyId);
+            }
+        }
+        return ExpiryWheel.NEVER;
+    }
+
+    // An expired override reveals the inherited fact again, rather than hiding it like a removal does
+    @Override
+    protected boolean removeExpired(final int keyId, final long deadline) {
+        return super.delete(keyId);
+    }
+
+    @Override
+    protected void forEachKey(final IntConsumer action) {
+        super.forEachKey(action);
+        for(int i = 0; i < layers.length; ++i) {
+            final int index = i;
+            layers[i].forEachKey(keyId -> {
+                if(super.lookup(keyId) == MISSING && !isRemoved(keyId) && !isInheritedBefore(keyId, index)) {
+                    action.accept(keyId);
+                }
+            });
+        }
+    }
+
+    protected boolean isRemoved(final int keyId) {
+        return removedKeys != null && removedKeys.contains(keyId);
+    }
+
+    protected IntSet getRemovedKeys() {
+        return removedKeys;
+    }
+
+    // Visits only the keys set on this table itself
+    protected void forEachOverride(final IntConsumer action) {
+        super.forEachKey(action);
+    }
+
+    // Throws away every fact set or removed on this table
+    protected void clearOverrides() {
+        clearStorage();
+        removedKeys = null;
+    }
+
+    private boolean isInherited(final int keyId) {
+        return isInheritedBefore(keyId, layers.length);
+    }
+
+    // Returns true if a layer before the given index contains the key
+    private boolean isInheritedBefore(final int keyId, final int index) {
+        for(int i = 0; i < index; ++i) {
+            if(layers[i].contains(keyId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
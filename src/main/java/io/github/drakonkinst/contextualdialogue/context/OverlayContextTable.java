@@ -0,0 +1,67 @@
+package io.github.drakonkinst.contextualdialogue.context;
+
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+/**
+ * A context table that layers changes over a parent table without copying it.
+ * <p>
+ * Facts that are not set in the overlay are read from the parent, which can
+ * itself be an overlay. Writes and removals only affect the overlay until they
+ * are committed to the parent, or thrown away with {@link #discard()}. The
+ * parent should not be modified while the overlay is in use.
+ */
+public class OverlayContextTable extends LayeredContextTable {
+    public OverlayContextTable(final ContextTable parent) {
+        super(parent);
+    }
+
+    /**
+     * Applies every change in this overlay to the parent table,
+     * then clears the overlay.
+     */
+    public void commit() {
+        final ContextTable parent = getParent();
+        final IntSet removedKeys = getRemovedKeys();
+        if(removedKeys != null) {
+            for(int keyId : removedKeys) {
+                parent.remove(keyId);
+            }
+        }
+        forEachOverride(keyId -> {
+            final long fact = lookup(keyId);
+            if(typeOf(fact) == FactType.LIST.ordinal()) {
+                parent.set(keyId, lookupList(keyId));
+            } else {
+                parent.setFact(keyId, fact);
+            }
+            final long deadline = getExpiry(keyId);
+            if(deadline != ExpiryWheel.NEVER) {
+                parent.expireAt(keyId, deadline);
+            }
+        });
+        clearOverrides();
+    }
+
+    // Throws away every change in this overlay, so it matches the parent again
+    public void discard() {
+        if(getJournal() != null) {
+            final IntSet removedKeys = getRemovedKeys();
+            if(removedKeys != null) {
+                for(int keyId : removedKeys) {
+                    recordChange(keyId);
+                }
+            }
+            forEachOverride(this::recordChange);
+        }
+        clearOverrides();
+    }
+
+    // Returns true if this overlay has changes that are not in the parent
+    public boolean hasChanges() {
+        return getNumOverrides() > 0;
+    }
+
+    public ContextTable getParent() {
+        return getLayer(0);
+    }
+}
@@ -0,0 +1,177 @@
+package io.github.drakonkinst.contextualdialogue.context;
+
+import io.github.drakonkinst.contextualdialogue.util.StringCache;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * A context table that can be read by many threads while it is being written to.
+ * <p>
+ * Facts are kept in an immutable version, which writers replace with an updated
+ * copy and publish atomically. Readers never block, and can take a consistent
+ * snapshot of the table in constant time. Since every write copies the table,
+ * this is best suited to tables that are read far more often than they change,
+ * such as world or region tables shared by many queries.
+ */
+public class SharedContextTable extends ContextTable {
+    private final AtomicReference<ContextTable> current;
+
+    public SharedContextTable() {
+        this(new ContextTable());
+    }
+
+    public SharedContextTable(final StringCache stringCache) {
+        this(new ContextTable(stringCache));
+    }
+
+    // Creates a shared table with a copy of the facts in the given table
+    public SharedContextTable(final ContextTable initial) {
+        super(initial.getStringCache());
+        current = new AtomicReference<>(new ContextTable(initial).freeze());
+    }
+
+    /**
+     * Returns the current version of this table. The snapshot is frozen,
+     * and is not affected by any later writes to this table.
+     *
+     * @return A read-only snapshot of this table.
+     */
+    public ContextTable snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Applies several writes as a single atomic update, so that readers
+     * either see all of them or none of them. The updater may be called
+     * more than once if another thread publishes a version concurrently.
+     *
+     * @param updater Writes to apply to a private copy of the table.
+     * @return Itself for method chaining.
+     */
+    public SharedContextTable update(final Consumer<ContextTable> updater) {
+        if(isFrozen()) {
+            throw new IllegalStateException("Error: Cannot modify a frozen context table!");
+        }
+        ContextTable prev;
+        ContextTable next;
+        do {
+            prev = current.get();
+            next = new ContextTable(prev);
+            if(getJournal() != null) {
+                next.enableJournal();
+            }
+            updater.accept(next);
+            next.freeze();
+        } while(!current.compareAndSet(prev, next));
+
+        // Writes made by the updater were recorded on the copy
+        if(next.getJournal() != null) {
+            IntIterator changed = next.getJournal().changedSince(0);
+            while(changed.hasNext()) {
+                recordChange(changed.nextInt());
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public int size() {
+        return current.get().size();
+    }
+
+    @Override
+    protected long lookup(final int keyId) {
+        return current.get().lookup(keyId);
+    }
+
+    @Override
+    protected IntSet lookupList(final int keyId) {
+        return current.get().lookupList(keyId);
+    }
+
+    @Override
+    protected void store(final int keyId, final int bits, final FactType type) {
+        update(table -> table.store(keyId, bits, type));
+    }
+
+    @Override
+    protected void storeList(final int keyId, final IntSet list) {
+        update(table -> table.storeList(keyId, list));
+    }
+
+    @Override
+    protected void setExpiry(final int keyId, final long deadline) {
+        update(table -> table.setExpiry(keyId, deadline));
+    }
+
+    @Override
+    public long getExpiry(final int keyId) {
+        return current.get().getExpiry(keyId);
+    }
+
+    @Override
+    protected boolean delete(final int keyId) {
+        if(!current.get().contains(keyId)) {
+            return false;
+        }
+        update(table -> table.delete(keyId));
+        return true;
+    }
+
+    // A writer may give the key a new value or TTL before the update is published, so the deadline is checked
+    // again on the version being updated
+    @Override
+    protected boolean removeExpired(final int keyId, final long deadline) {
+        final boolean[] result = new boolean[1];
+        update(table -> result[0] = table.getExpiry(keyId) <= deadline && table.delete(keyId));
+        return result[0];
+    }
+
+    @Override
+    protected boolean modifyNumber(final int keyId, final float operand, final boolean isAdd) {
+        final FactType type = current.get().getType(keyId);
+        if(type != FactType.NULL && type != FactType.NUMBER) {
+            return false;
+        }
+        final boolean[] result = new boolean[1];
+        update(table -> result[0] = table.modifyNumber(keyId, operand, isAdd));
+        return result[0];
+    }
+
+    @Override
+    protected boolean invertBoolean(final int keyId) {
+        if(!current.get().isBoolean(keyId)) {
+            return false;
+        }
+        final boolean[] result = new boolean[1];
+        update(table -> result[0] = table.invertBoolean(keyId));
+        return result[0];
+    }
+
+    @Override
+    protected void forEachKey(final IntConsumer action) {
+        current.get().forEachKey(action);
+    }
+
+    // Only the current version needs to be written, which is a plain context table
+    private Object writeReplace() {
+        return new SerializedForm(current.get());
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private final ContextTable facts;
+
+        private SerializedForm(final ContextTable facts) {
+            this.facts = facts;
+        }
+
+        private Object readResolve() {
+            return new SharedContextTable(facts);
+        }
+    }
+}
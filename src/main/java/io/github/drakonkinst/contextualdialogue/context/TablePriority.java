@@ -0,0 +1,55 @@
+package io.github.drakonkinst.contextualdialogue.context;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The order in which context tables are searched for keys that do not specify
+ * a table. Table names are resolved to slots once, so the order can be applied
+ * to a ContextSet without hashing the well-known table names.
+ */
+public final class TablePriority implements Serializable {
+    public static final TablePriority DEFAULT = new TablePriority(ContextSet.SLOT_NAMES);
+
+    // Limited so that a table's position fits in a byte
+    private static final int MAX_TABLES = Byte.MAX_VALUE;
+
+    private final String[] tableNames;
+    private final int[] slots;
+
+    public TablePriority(final String... tableNames) {
+        if(tableNames.length > MAX_TABLES) {
+            throw new IllegalArgumentException("Table priority cannot have more than " + MAX_TABLES + " tables");
+        }
+        this.tableNames = tableNames.clone();
+        this.slots = new int[tableNames.length];
+        for(int i = 0; i < tableNames.length; ++i) {
+            if(tableNames[i] == null) {
+                throw new IllegalArgumentException("Table priority cannot contain null");
+            }
+            slots[i] = ContextSet.getSlot(tableNames[i]);
+        }
+    }
+
+    // Returns the tables of the set in priority order, which may contain nulls for missing tables
+    public ContextTable[] resolve(final ContextSet contexts) {
+        ContextTable[] tables = new ContextTable[slots.length];
+        for(int i = 0; i < slots.length; ++i) {
+            tables[i] = contexts.get(slots[i], tableNames[i]);
+        }
+        return tables;
+    }
+
+    public int size() {
+        return tableNames.length;
+    }
+
+    public String getTableName(final int index) {
+        return tableNames[index];
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(tableNames);
+    }
+}
@@ -105,7 +105,7 @@ public final class Functions {
             throw new SpeechException("Index out of bounds: " + index);
         }
         int matchingChoice = list.getInt(choiceIndex);
-        return StringCache.lookup(matchingChoice);
+        return query.getStringCache().lookup(matchingChoice);
     }
 
     public static String pluralize(int count, String singular, String plural) {
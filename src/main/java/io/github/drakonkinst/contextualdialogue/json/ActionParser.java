@@ -20,15 +20,15 @@ import io.github.drakonkinst.contextualdialogue.util.StringCache;
 public final class ActionParser {
     private ActionParser() {}
 
-    public static Action[] parseActions(JsonArray arr) {
+    public static Action[] parseActions(JsonArray arr, StringCache stringCache) {
         Action[] actions = new Action[arr.size()];
         for(int i = 0; i < arr.size(); ++i) {
-            actions[i] = parseAction(arr.get(i).getAsJsonObject());
+            actions[i] = parseAction(arr.get(i).getAsJsonObject(), stringCache);
         }
         return actions;
     }
 
-    private static Action parseAction(JsonObject obj) {
+    private static Action parseAction(JsonObject obj, StringCache stringCache) {
         String op = obj.get("op").getAsString();
         JsonElement contextEl = obj.get("context");
         JsonElement valueEl = obj.get("value");
@@ -53,13 +53,13 @@ public final class ActionParser {
                 return new InvertAction(table, key);
             }
             case "set_list" -> {
-                return new SetListAction(table, key, ContextParser.fromJsonArray(valueEl.getAsJsonArray()));
+                return new SetListAction(table, key, ContextParser.fromJsonArray(valueEl.getAsJsonArray(), stringCache));
             }
             case "set_static" -> {
                 JsonPrimitive valPrimitive = valueEl.getAsJsonPrimitive();
                 if(valPrimitive.isString()) {
                     return new SetStaticAction(table, key,
-                            StringCache.cacheString(valPrimitive.getAsString()), FactType.STRING);
+                            stringCache.cacheString(valPrimitive.getAsString()), FactType.STRING);
                 } else if(valPrimitive.isNumber()) {
                     return new SetStaticAction(table, key,
                             valPrimitive.getAsFloat(), FactType.NUMBER);
@@ -5,38 +5,43 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
+import io.github.drakonkinst.contextualdialogue.context.ContextSet;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.util.CompactIntSets;
 import io.github.drakonkinst.contextualdialogue.util.StringCache;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
-import java.util.HashMap;
 import java.util.Map;
 
 public final class ContextParser {
     private ContextParser() {}
 
-    public static Map<String, ContextTable> parseContexts(JsonObject obj) {
-        Map<String, ContextTable> map = new HashMap<>();
+    public static ContextSet parseContexts(JsonObject obj) {
+        return parseContexts(obj, StringCache.getDefault());
+    }
+
+    public static ContextSet parseContexts(JsonObject obj, StringCache stringCache) {
+        ContextSet contexts = new ContextSet();
         for(Map.Entry<String, JsonElement> entry : obj.entrySet()) {
             String contextName = entry.getKey();
             JsonObject contextObj = entry.getValue().getAsJsonObject();
-            ContextTable context = parseContext(contextObj);
-            map.put(contextName, context);
+            ContextTable context = parseContext(contextObj, stringCache);
+            contexts.put(contextName, context);
         }
-        return map;
+        return contexts;
     }
 
-    public static IntSet fromJsonArray(JsonArray arr) {
-        IntSet set = new IntOpenHashSet(arr.size());
+    public static IntSet fromJsonArray(JsonArray arr, StringCache stringCache) {
+        int[] values = new int[arr.size()];
+        int i = 0;
         for(JsonElement arrEl : arr) {
             JsonPrimitive arrPrimitive = arrEl.getAsJsonPrimitive();
             if(arrPrimitive.isString()) {
-                set.add(StringCache.cacheString(arrPrimitive.getAsString()));
+                values[i++] = stringCache.cacheString(arrPrimitive.getAsString());
             } else if(arrPrimitive.isNumber()) {
                 float num = arrPrimitive.getAsFloat();
                 if(num == Math.round(num)) {
-                    set.add((int) num);
+                    values[i++] = (int) num;
                 } else {
                     throw new JsonParseException("List context can only contain integers or strings");
                 }
@@ -44,11 +49,11 @@ public final class ContextParser {
                 throw new JsonParseException("List context can only contain integers or strings");
             }
         }
-        return set;
+        return CompactIntSets.of(values);
     }
 
-    private static ContextTable parseContext(JsonObject obj) {
-        ContextTable table = new ContextTable();
+    private static ContextTable parseContext(JsonObject obj, StringCache stringCache) {
+        ContextTable table = new ContextTable(stringCache);
         for(Map.Entry<String, JsonElement> entry : obj.entrySet()) {
             String key = entry.getKey();
             JsonElement el = entry.getValue();
@@ -66,7 +71,7 @@ public final class ContextParser {
                 }
             } else if(el.isJsonArray()) {
                 JsonArray arr = el.getAsJsonArray();
-                IntSet set = fromJsonArray(arr);
+                IntSet set = fromJsonArray(arr, stringCache);
                 table.set(key, set);
             } else {
                 throw new JsonParseException("Value " + el + " is not supported as context");
@@ -11,6 +11,7 @@ import io.github.drakonkinst.contextualdialogue.rule.Criterion;
 import io.github.drakonkinst.contextualdialogue.rule.CriterionDummy;
 import io.github.drakonkinst.contextualdialogue.rule.CriterionDynamic;
 import io.github.drakonkinst.contextualdialogue.rule.CriterionEmpty;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionExact;
 import io.github.drakonkinst.contextualdialogue.rule.CriterionExist;
 import io.github.drakonkinst.contextualdialogue.rule.CriterionFail;
 import io.github.drakonkinst.contextualdialogue.rule.CriterionIncludes;
@@ -54,7 +55,7 @@ public final class CriteriaParser {
     private CriteriaParser() {}
 
     // Parses a list of criteria JSON into a Rule object
-    public static Rule parseRule(final JsonArray array, final List<CriterionTuple> presetRules) {
+    public static Rule parseRule(final JsonArray array, final List<CriterionTuple> presetRules, final StringCache stringCache) {
         // Calculate number of criteria
         int size = presetRules.size();
         if(array != null) {
@@ -80,7 +81,7 @@ public final class CriteriaParser {
                     throw new JsonParseException("Error: Rule array should only contain criterion objects");
                 }
 
-                CriterionTuple tuple = parseCriterion(element.getAsJsonObject());
+                CriterionTuple tuple = parseCriterion(element.getAsJsonObject(), stringCache);
                 builder.add(tuple);
             }
         }
@@ -89,7 +90,7 @@ public final class CriteriaParser {
     }
 
     // Parse criterion JSON
-    private static CriterionTuple parseCriterion(final JsonObject criterionObj) {
+    private static CriterionTuple parseCriterion(final JsonObject criterionObj, final StringCache stringCache) {
         final String table = JsonUtils.getNullableString(criterionObj.get("table"));
         final String type = criterionObj.get("type").getAsString();
         final String field = validateField(type, criterionObj.get("field"));
@@ -101,7 +102,7 @@ public final class CriteriaParser {
             inverse = nullableInverse.getAsBoolean();
         }
 
-        final Criterion criterion = buildCriterion(criterionObj, type, nullableValue, inverse);
+        final Criterion criterion = buildCriterion(criterionObj, type, nullableValue, inverse, stringCache);
         return new CriterionTuple(field, table, criterion);
     }
 
@@ -130,26 +131,27 @@ public final class CriteriaParser {
     public static Criterion buildCriterion(final JsonObject criterionObj,
                                            final String type,
                                            final JsonElement nullableValue,
-                                           final boolean inverse) {
+                                           final boolean inverse,
+                                           final StringCache stringCache) {
         if(TYPES_DYNAMIC.contains(type)) {
             return buildDynamicCriterion(criterionObj, type, inverse);
         }
 
         return switch (type) {
-            case TYPE_EQUALS -> buildEqualsCriterion(nullableValue, inverse);
+            case TYPE_EQUALS -> buildEqualsCriterion(nullableValue, inverse, stringCache);
             case TYPE_MIN -> CriterionStatic.min(nullableValue.getAsFloat(), inverse);
             case TYPE_MAX -> CriterionStatic.max(nullableValue.getAsFloat(), inverse);
             case TYPE_RANGE -> buildRangeCriterion(nullableValue, inverse);
             case TYPE_EXISTS -> CriterionExist.exists(inverse);
             case TYPE_DUMMY -> CriterionDummy.of(nullableValue.getAsInt());
             case TYPE_FAIL -> CriterionFail.withChance(nullableValue.getAsFloat());
-            case TYPE_INCLUDES -> buildIncludesCriterion(nullableValue.getAsJsonArray(), inverse);
+            case TYPE_INCLUDES -> buildIncludesCriterion(nullableValue.getAsJsonArray(), inverse, stringCache);
             case TYPE_EMPTY -> CriterionEmpty.empty(inverse);
             default -> throw new JsonParseException("Error: Invalid criterion type \"" + type + "\"");
         };
     }
 
-    private static Criterion buildEqualsCriterion(final JsonElement nullableValue, final boolean inverse) {
+    private static Criterion buildEqualsCriterion(final JsonElement nullableValue, final boolean inverse, final StringCache stringCache) {
         // Multiple case
         if(nullableValue.isJsonArray()) {
             final JsonArray array = nullableValue.getAsJsonArray();
@@ -157,7 +159,7 @@ public final class CriteriaParser {
             for(int i = 0; i < array.size(); ++i) {
                 final JsonPrimitive primitiveEl = array.get(i).getAsJsonPrimitive();
                 if(primitiveEl.isString()) {
-                    result[i] = StringCache.cacheString(primitiveEl.getAsString());
+                    result[i] = stringCache.cacheString(primitiveEl.getAsString());
                 } else if(primitiveEl.isNumber()) {
                     result[i] = primitiveEl.getAsInt();
                 } else if(primitiveEl.getAsBoolean()) {
@@ -171,14 +173,14 @@ public final class CriteriaParser {
 
         final JsonPrimitive value = nullableValue.getAsJsonPrimitive();
         if(value.isBoolean()) {
-            return CriterionStatic.equals(value.getAsBoolean(), inverse);
+            return CriterionExact.equals(value.getAsBoolean(), inverse);
         }
         if(value.isNumber()) {
             // Only int is supported for equals case
             return CriterionStatic.equals(value.getAsInt(), inverse);
         }
         if(value.isString()) {
-            return CriterionStatic.equals(value.getAsString(), inverse);
+            return CriterionExact.equals(value.getAsString(), inverse, stringCache);
         }
         throw new JsonParseException("Error: Unknown primitive value type");
     }
@@ -209,13 +211,13 @@ public final class CriteriaParser {
         };
     }
 
-    private static CriterionIncludes buildIncludesCriterion(final JsonArray array, final boolean inverse) {
+    private static CriterionIncludes buildIncludesCriterion(final JsonArray array, final boolean inverse, final StringCache stringCache) {
         int[] values = new int[array.size()];
 
         for(int i = 0; i < array.size(); ++i) {
             JsonPrimitive el = array.get(i).getAsJsonPrimitive();
             if(el.isString()) {
-                values[i] = StringCache.cacheString(el.getAsString());
+                values[i] = stringCache.cacheString(el.getAsString());
             } else if(el.isNumber()) {
                 values[i] = el.getAsInt();
             } else {
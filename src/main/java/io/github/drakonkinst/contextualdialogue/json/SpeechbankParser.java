@@ -7,18 +7,25 @@ import com.google.gson.JsonParseException;
 import io.github.drakonkinst.contextualdialogue.SymbolChecker;
 import io.github.drakonkinst.contextualdialogue.Tokenizer;
 import io.github.drakonkinst.contextualdialogue.action.Action;
+import io.github.drakonkinst.contextualdialogue.action.ContextAction;
 import io.github.drakonkinst.commonutil.FileUtils;
 import io.github.drakonkinst.commonutil.JsonUtils;
 import io.github.drakonkinst.commonutil.MyLogger;
 import io.github.drakonkinst.contextualdialogue.exception.SymbolException;
 import io.github.drakonkinst.contextualdialogue.exception.TokenizeException;
 import io.github.drakonkinst.contextualdialogue.function.FunctionLookup;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionPool;
 import io.github.drakonkinst.contextualdialogue.rule.CriterionTuple;
 import io.github.drakonkinst.contextualdialogue.rule.Rule;
 import io.github.drakonkinst.contextualdialogue.speech.Speechbank;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechbankEntry;
 import io.github.drakonkinst.contextualdialogue.token.Token;
+import io.github.drakonkinst.contextualdialogue.token.TokenContext;
+import io.github.drakonkinst.contextualdialogue.token.TokenFunction;
 import io.github.drakonkinst.contextualdialogue.token.TokenGroup;
+import io.github.drakonkinst.contextualdialogue.token.TokenList;
+import io.github.drakonkinst.contextualdialogue.util.KeyCache;
+import io.github.drakonkinst.contextualdialogue.util.StringCache;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -47,28 +54,38 @@ public final class SpeechbankParser {
     private record NamedEntry(String category, String name, SpeechbankEntry entry) {}
 
     // Load entire speech database
-    public static Map<String, Speechbank> loadDatabase(String speechbankPath, boolean isInternalFile, FunctionLookup functionLookup) {
+    public static Map<String, Speechbank> loadDatabase(String speechbankPath,
+                                                       boolean isInternalFile,
+                                                       FunctionLookup functionLookup,
+                                                       StringCache stringCache,
+                                                       CriterionPool criterionPool) {
         Map<String, Result> results = new HashMap<>();
         Queue<QueueItem> loadQueue = new ArrayDeque<>();
 
         // Read preset file first in the root folder
-        readPresetFile(speechbankPath, isInternalFile, results, loadQueue, functionLookup);
+        readPresetFile(speechbankPath, isInternalFile, results, loadQueue, functionLookup, stringCache);
 
         // Read all other speechbanks
-        readSpeechbanksInDirectory(speechbankPath, isInternalFile, results, loadQueue, functionLookup);
+        readSpeechbanksInDirectory(speechbankPath, isInternalFile, results, loadQueue, functionLookup, stringCache);
 
         // Resolve speechbank dependencies
-        resolveLoadQueue(loadQueue, results, functionLookup);
+        resolveLoadQueue(loadQueue, results, functionLookup, stringCache);
 
-        return extractSpeechbanks(results);
+        Map<String, Speechbank> speechbanks = extractSpeechbanks(results);
+
+        // Resolve every context key to its id and merge identical criteria
+        linkSpeechbanks(speechbanks, criterionPool);
+
+        return speechbanks;
     }
 
     private static void readPresetFile(String speechbankPath,
                                        boolean isInternalFile,
                                        Map<String, Result> results,
                                        Queue<QueueItem> loadQueue,
-                                       FunctionLookup functionLookup) {
-        readSpeechbankFile(speechbankPath, PRESET_FILE, isInternalFile, results, loadQueue, functionLookup);
+                                       FunctionLookup functionLookup,
+                                       StringCache stringCache) {
+        readSpeechbankFile(speechbankPath, PRESET_FILE, isInternalFile, results, loadQueue, functionLookup, stringCache);
         if(!results.containsKey(PRESET_NAME)) {
             MyLogger.warning("Warning: Speechbank " + PRESET_FILE + " should be included in the root folder");
             results.put(PRESET_NAME, NULL_RESULT);
@@ -79,7 +96,8 @@ public final class SpeechbankParser {
                                                    boolean isInternalFile,
                                                    Map<String, Result> results,
                                                    Queue<QueueItem> loadQueue,
-                                                   FunctionLookup functionLookup) {
+                                                   FunctionLookup functionLookup,
+                                                   StringCache stringCache) {
         // Read directory
         DirectoryStream<Path> speechbankFiles;
         if(isInternalFile) {
@@ -108,11 +126,11 @@ public final class SpeechbankParser {
 
             if(Files.isDirectory(speechbankFile)) {
                 // Read nested directory
-                readSpeechbanksInDirectory(Paths.get(speechbankPath, fileName).toString(), isInternalFile, results, loadQueue, functionLookup);
+                readSpeechbanksInDirectory(Paths.get(speechbankPath, fileName).toString(), isInternalFile, results, loadQueue, functionLookup, stringCache);
             } else if(fileName.endsWith((JsonUtils.JSON_EXTENSION))) {
                 // Read speechbank
                 MyLogger.finer("Parsing " + fileName + " from " + speechbankPath);
-                readSpeechbankFile(speechbankPath, fileName, isInternalFile, results, loadQueue, functionLookup);
+                readSpeechbankFile(speechbankPath, fileName, isInternalFile, results, loadQueue, functionLookup, stringCache);
             }
         }
     }
@@ -122,7 +140,8 @@ public final class SpeechbankParser {
                                            boolean isInternalFile,
                                            Map<String, Result> results,
                                            Queue<QueueItem> loadQueue,
-                                           FunctionLookup functionLookup) {
+                                           FunctionLookup functionLookup,
+                                           StringCache stringCache) {
         String groupName = JsonUtils.removeExtension(fileName);
         if(results.containsKey(groupName)) {
             MyLogger.severe("Error: Duplicate speechbank found for group \"" + groupName + "\", skipping");
@@ -161,12 +180,13 @@ public final class SpeechbankParser {
         }
 
         // Add speechbank to map
-        attemptParseSpeechbank(groupName, speechbankObj, parentResult, results, functionLookup);
+        attemptParseSpeechbank(groupName, speechbankObj, parentResult, results, functionLookup, stringCache);
     }
 
     private static void resolveLoadQueue(Queue<QueueItem> loadQueue,
                                          Map<String, Result> results,
-                                         FunctionLookup functionLookup) {
+                                         FunctionLookup functionLookup,
+                                         StringCache stringCache) {
         int checkAfter = loadQueue.size();
         boolean queueChanged = false;
 
@@ -176,7 +196,7 @@ public final class SpeechbankParser {
 
             if(parentResult != null) {
                 // Parent is now loaded, proceed with parsing speechbank
-                attemptParseSpeechbank(item.groupName(), item.object(), parentResult, results, functionLookup);
+                attemptParseSpeechbank(item.groupName(), item.object(), parentResult, results, functionLookup, stringCache);
                 queueChanged = true;
             } else {
                 // Parent still not loaded, add to queue
@@ -213,14 +233,73 @@ public final class SpeechbankParser {
         return speechbankMap;
     }
 
+    private static void linkSpeechbanks(Map<String, Speechbank> speechbanks, CriterionPool criterionPool) {
+        for(Speechbank speechbank : speechbanks.values()) {
+            if(speechbank == null) {
+                continue;
+            }
+            for(SpeechbankEntry[] entries : speechbank.getEntries().values()) {
+                for(SpeechbankEntry entry : entries) {
+                    linkEntry(entry, criterionPool);
+                }
+            }
+        }
+        MyLogger.finer("Linked " + KeyCache.getSize() + " context keys");
+        MyLogger.finer("Interned " + criterionPool.getNumInterned() + " criteria into " + criterionPool.size() + " distinct criteria");
+    }
+
+    // Entries may share criteria, lines, or actions through presets, which is fine since linking is idempotent
+    private static void linkEntry(SpeechbankEntry entry, CriterionPool criterionPool) {
+        // Link before interning, since the category indexes already hold the keys of the original tuples
+        for(CriterionTuple tuple : entry.getRule().getCriteria()) {
+            tuple.link();
+        }
+        entry.getRule().internCriteria(criterionPool);
+
+        TokenGroup[] speechLines = entry.getSpeechLines();
+        if(speechLines != null) {
+            for(TokenGroup speechLine : speechLines) {
+                linkToken(speechLine);
+            }
+        }
+
+        Action[] actions = entry.getActions();
+        if(actions != null) {
+            for(Action action : actions) {
+                if(action instanceof ContextAction contextAction) {
+                    contextAction.link();
+                }
+            }
+        }
+    }
+
+    private static void linkToken(Token token) {
+        if(token instanceof TokenContext tokenContext) {
+            tokenContext.getContextKey().link();
+        } else if(token instanceof TokenGroup tokenGroup) {
+            for(Token t : tokenGroup.getTokens()) {
+                linkToken(t);
+            }
+        } else if(token instanceof TokenList tokenList) {
+            for(Token t : tokenList.getTokens()) {
+                linkToken(t);
+            }
+        } else if(token instanceof TokenFunction tokenFunction) {
+            for(Token t : tokenFunction.getArgs()) {
+                linkToken(t);
+            }
+        }
+    }
+
     private static void attemptParseSpeechbank(String groupName,
                                                JsonObject speechbankObj,
                                                Result parentResult,
                                                Map<String, Result> results,
-                                               FunctionLookup functionLookup) {
+                                               FunctionLookup functionLookup,
+                                               StringCache stringCache) {
         Result result;
         try {
-            result = parseSpeechbank(speechbankObj, parentResult, functionLookup);
+            result = parseSpeechbank(speechbankObj, parentResult, functionLookup, stringCache);
         } catch(Exception e) {
             MyLogger.severe("Error: Unable to parse speechbank for " + groupName, e);
             return;
@@ -229,7 +308,7 @@ public final class SpeechbankParser {
         results.put(groupName, result);
     }
 
-    private static Result parseSpeechbank(JsonObject obj, Result parent, FunctionLookup functionLookup) {
+    private static Result parseSpeechbank(JsonObject obj, Result parent, FunctionLookup functionLookup, StringCache stringCache) {
         // Read parent
         String parentName = null;
         JsonElement parentElement = obj.get("parent");
@@ -257,7 +336,7 @@ public final class SpeechbankParser {
                 String categoryName = entry.getKey();
                 JsonArray speechEntriesArr = entry.getValue().getAsJsonArray();
                 SpeechbankEntry[] speechEntries =
-                        parseSpeechEntries(categoryName, speechEntriesArr, symbols, namedEntries, functionLookup);
+                        parseSpeechEntries(categoryName, speechEntriesArr, symbols, namedEntries, functionLookup, stringCache);
                 categoryToSpeechMap.put(categoryName, speechEntries);
             }
         }
@@ -294,10 +373,11 @@ public final class SpeechbankParser {
                                                         JsonArray arr,
                                                         Map<String, Token> symbols,
                                                         List<NamedEntry> namedEntries,
-                                                        FunctionLookup functionLookup) {
+                                                        FunctionLookup functionLookup,
+                                                        StringCache stringCache) {
         SpeechbankEntry[] speechEntries = new SpeechbankEntry[arr.size()];
         for(int i = 0; i < arr.size(); ++i) {
-            speechEntries[i] = parseSpeechEntry(categoryName, arr.get(i).getAsJsonObject(), symbols, namedEntries, functionLookup);
+            speechEntries[i] = parseSpeechEntry(categoryName, arr.get(i).getAsJsonObject(), symbols, namedEntries, functionLookup, stringCache);
         }
         return speechEntries;
     }
@@ -306,7 +386,8 @@ public final class SpeechbankParser {
                                                     JsonObject obj,
                                                     Map<String, Token> parentSymbols,
                                                     List<NamedEntry> namedEntries,
-                                                    FunctionLookup functionLookup) {
+                                                    FunctionLookup functionLookup,
+                                                    StringCache stringCache) {
         boolean empty = true;
 
         // Read symbols
@@ -325,7 +406,7 @@ public final class SpeechbankParser {
         if(ruleEl != null) {
             criteriaArr = ruleEl.getAsJsonArray();
         }
-        Rule rule = CriteriaParser.parseRule(criteriaArr, presetRules);
+        Rule rule = CriteriaParser.parseRule(criteriaArr, presetRules, stringCache);
 
         // Read lines
         TokenGroup[] speechLines = checkSpeechLinesType(obj.get("lines"), symbols, namedEntries, functionLookup);
@@ -337,7 +418,7 @@ public final class SpeechbankParser {
         JsonElement actionsEl = obj.get("actions");
         Action[] actions = null;
         if(actionsEl != null) {
-            actions = ActionParser.parseActions(actionsEl.getAsJsonArray());
+            actions = ActionParser.parseActions(actionsEl.getAsJsonArray(), stringCache);
             if(actions.length > 0) {
                 empty = false;
             }
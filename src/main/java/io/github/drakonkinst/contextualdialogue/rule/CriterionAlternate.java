@@ -25,11 +25,39 @@ public class CriterionAlternate implements FloatCriterion {
         return inverted;
     }
 
+    @Override
+    public boolean compareExact(final int value) {
+        for(int option : options) {
+            if(option == value) {
+                return !inverted;
+            }
+        }
+        return inverted;
+    }
+
+    public int[] getOptions() {
+        return options;
+    }
+
+    public boolean isInverted() {
+        return inverted;
+    }
+
     @Override
     public int getPriority() {
         return 2;
     }
 
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof CriterionAlternate other && inverted == other.inverted && Arrays.equals(options, other.options);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(options) + Boolean.hashCode(inverted);
+    }
+
     @Override
     public String toString() {
         if(inverted) {
@@ -20,6 +20,16 @@ public class CriterionDummy implements Criterion {
         return 0;
     }
 
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof CriterionDummy other && value == other.value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value;
+    }
+
     @Override
     public String toString() {
         return "dummy " + value;
@@ -1,10 +1,12 @@
 package io.github.drakonkinst.contextualdialogue.rule;
 
 import io.github.drakonkinst.commonutil.MyLogger;
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.context.FactType;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 
-import java.util.Map;
+import java.util.logging.Level;
 
 public class CriterionDynamic implements Criterion {
     public enum ComparisonType {
@@ -34,8 +36,7 @@ public class CriterionDynamic implements Criterion {
     }
 
     // First key/table is stored in the CriterionTuple
-    private final String otherTable;
-    private final String otherKey;
+    private final ContextKey other;
     private final ComparisonType comparisonType;
     private final boolean inverted;
 
@@ -43,8 +44,7 @@ public class CriterionDynamic implements Criterion {
                              final String otherKey,
                              final ComparisonType comparisonType,
                              final boolean inverted) {
-        this.otherTable = otherTable;
-        this.otherKey = otherKey;
+        this.other = new ContextKey(otherTable, otherKey);
         this.comparisonType = comparisonType;
         this.inverted = inverted;
     }
@@ -69,30 +69,65 @@ public class CriterionDynamic implements Criterion {
         throw new IllegalStateException("Invalid comparison type");
     }
 
-    public boolean evaluate(String key, String table, Map<String, ContextTable> contexts) {
-        ContextTable matching = SpeechQuery.getMatchingTableFromMap(key, table, contexts);
-        ContextTable otherMatching = SpeechQuery.getMatchingTableFromMap(otherKey, otherTable, contexts);
-        String displayKey = ContextTable.getDisplayKey(key, table);
-        String otherDisplayKey = ContextTable.getDisplayKey(otherKey, otherTable);
+    // Compares two strings or booleans, whose values are exact ids
+    public boolean compareExact(final int value1, final int value2) {
+        if(comparisonType == ComparisonType.EQUALS) {
+            return inverted != (value1 == value2);
+        }
+        if(comparisonType == ComparisonType.LESS_EQUAL) {
+            return inverted != (value1 <= value2);
+        }
+        if(comparisonType == ComparisonType.LESS_THAN) {
+            return inverted != (value1 < value2);
+        }
+        throw new IllegalStateException("Invalid comparison type");
+    }
+
+    public void link() {
+        other.link();
+    }
+
+    public ContextKey getOther() {
+        return other;
+    }
+
+    public boolean evaluate(ContextKey contextKey, SpeechQuery query) {
+        ContextTable matching = query.getMatchingTable(contextKey);
+        ContextTable otherMatching = query.getMatchingTable(other);
+        int keyId = contextKey.getKeyId();
+        int otherKeyId = other.getKeyId();
 
-        if(matching == null || !matching.contains(key)) {
-            MyLogger.finest("FAIL: No matching context for " + displayKey);
+        FactType type1 = matching == null ? FactType.NULL : matching.getType(keyId);
+        if(type1 == FactType.NULL) {
+            if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+                MyLogger.finest("FAIL: No matching context for " + contextKey);
+            }
             return false;
         }
 
-        if(otherMatching == null || !otherMatching.contains(otherKey)) {
-            MyLogger.finest("FAIL: No matching context for " + otherDisplayKey);
+        FactType type2 = otherMatching == null ? FactType.NULL : otherMatching.getType(otherKeyId);
+        if(type2 == FactType.NULL) {
+            if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+                MyLogger.finest("FAIL: No matching context for " + other);
+            }
             return false;
         }
 
-        float value1 = matching.get(key);
-        float value2 = otherMatching.get(otherKey);
-        boolean passed = compare(value1, value2);
-
-        if(passed) {
-            MyLogger.finest("PASS: Dynamic comparison succeeded for " + displayKey + " = " + value1 + ", " + otherDisplayKey + " = " + value2);
+        boolean passed;
+        if(type1 == FactType.NUMBER || type2 == FactType.NUMBER) {
+            passed = compare(matching.get(keyId), otherMatching.get(otherKeyId));
         } else {
-            MyLogger.finest("FAIL: Dynamic comparison failed for " + displayKey + " = " + value1 + ", " + otherDisplayKey + " = " + value2);
+            passed = compareExact(matching.getAsInt(keyId), otherMatching.getAsInt(otherKeyId));
+        }
+
+        if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+            float value1 = matching.get(keyId);
+            float value2 = otherMatching.get(otherKeyId);
+            if(passed) {
+                MyLogger.finest("PASS: Dynamic comparison succeeded for " + contextKey + " = " + value1 + ", " + other + " = " + value2);
+            } else {
+                MyLogger.finest("FAIL: Dynamic comparison failed for " + contextKey + " = " + value1 + ", " + other + " = " + value2);
+            }
         }
         return passed;
     }
@@ -102,6 +137,17 @@ public class CriterionDynamic implements Criterion {
         return 1;
     }
 
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof CriterionDynamic criterion && comparisonType == criterion.comparisonType && inverted == criterion.inverted
+                && other.equals(criterion.other);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * other.hashCode() + comparisonType.ordinal()) + Boolean.hashCode(inverted);
+    }
+
     @Override
     public String toString() {
         final String operation;
@@ -123,6 +169,6 @@ public class CriterionDynamic implements Criterion {
             }
         }
 
-        return operation + " " + otherTable + "." + otherKey;
+        return operation + " " + other.getTable() + "." + other.getKey();
     }
 }
@@ -24,6 +24,16 @@ public class CriterionEmpty implements ListCriterion {
         return 4;
     }
 
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof CriterionEmpty other && inverted == other.inverted;
+    }
+
+    @Override
+    public int hashCode() {
+        return Boolean.hashCode(inverted);
+    }
+
     @Override
     public String toString() {
         if(inverted) {
@@ -0,0 +1,12 @@
+package io.github.drakonkinst.contextualdialogue.rule;
+
+import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
+
+/**
+ * A criterion bound to the key it reads, compiled once per CriterionTuple so
+ * that evaluating it is a single call without any type dispatch.
+ */
+@FunctionalInterface
+public interface CriterionEvaluator {
+    boolean evaluate(final SpeechQuery query);
+}
@@ -0,0 +1,71 @@
+package io.github.drakonkinst.contextualdialogue.rule;
+
+import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.util.StringCache;
+
+/**
+ * Checks that a string or boolean is equal to a value. Values are compared
+ * as exact ints, so string ids are never rounded through a float.
+ */
+public class CriterionExact implements FloatCriterion {
+    public static CriterionExact equals(final boolean flag) {
+        return equals(flag, false);
+    }
+
+    public static CriterionExact equals(final boolean flag, final boolean inverse) {
+        return new CriterionExact(ContextTable.fromBoolean(flag), inverse);
+    }
+
+    public static CriterionExact equals(final String value, final boolean inverse, final StringCache stringCache) {
+        return new CriterionExact(stringCache.cacheString(value), inverse);
+    }
+
+    private final int value;
+    private final boolean inverted;
+
+    private CriterionExact(final int value, final boolean inverted) {
+        this.value = value;
+        this.inverted = inverted;
+    }
+
+    @Override
+    public boolean compare(final float value) {
+        return inverted != (this.value == value);
+    }
+
+    @Override
+    public boolean compareExact(final int value) {
+        return inverted != (this.value == value);
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public boolean isInverted() {
+        return inverted;
+    }
+
+    @Override
+    public int getPriority() {
+        return 3;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof CriterionExact other && value == other.value && inverted == other.inverted;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * value + Boolean.hashCode(inverted);
+    }
+
+    @Override
+    public String toString() {
+        if(inverted) {
+            return "!= " + value;
+        }
+        return "= " + value;
+    }
+}
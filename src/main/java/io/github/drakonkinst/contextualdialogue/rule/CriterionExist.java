@@ -1,10 +1,11 @@
 package io.github.drakonkinst.contextualdialogue.rule;
 
 import io.github.drakonkinst.commonutil.MyLogger;
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 
-import java.util.Map;
+import java.util.logging.Level;
 
 public class CriterionExist implements Criterion {
     private static final CriterionExist EXISTS = new CriterionExist(false);
@@ -23,23 +24,38 @@ public class CriterionExist implements Criterion {
         this.inverted = inverted;
     }
 
-    public boolean evaluate(String key, String table, Map<String, ContextTable> contexts) {
-        ContextTable matchingTable = SpeechQuery.getMatchingTableFromMap(key, table, contexts);
-        String displayKey = ContextTable.getDisplayKey(key, table);
-        boolean passed = (matchingTable != null && matchingTable.contains(key)) != inverted;
-        if(passed) {
-            MyLogger.finest("PASS: Key " + displayKey + " succeeded exists=" + (!inverted));
-        } else {
-            MyLogger.finest("FAIL: Key " + displayKey + " failed exists=" + (!inverted));
+    public boolean evaluate(ContextKey contextKey, SpeechQuery query) {
+        ContextTable matchingTable = query.getMatchingTable(contextKey);
+        boolean passed = (matchingTable != null && matchingTable.contains(contextKey.getKeyId())) != inverted;
+        if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+            if(passed) {
+                MyLogger.finest("PASS: Key " + contextKey + " succeeded exists=" + (!inverted));
+            } else {
+                MyLogger.finest("FAIL: Key " + contextKey + " failed exists=" + (!inverted));
+            }
         }
         return passed;
     }
 
+    public boolean isInverted() {
+        return inverted;
+    }
+
     @Override
     public int getPriority() {
         return 4;
     }
 
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof CriterionExist other && inverted == other.inverted;
+    }
+
+    @Override
+    public int hashCode() {
+        return Boolean.hashCode(inverted);
+    }
+
     public String toString() {
         if(inverted) {
             return "does not exist";
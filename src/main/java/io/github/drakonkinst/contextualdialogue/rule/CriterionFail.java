@@ -30,6 +30,16 @@ public class CriterionFail implements Criterion {
         return 5;
     }
 
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof CriterionFail other && Float.compare(chanceToFail, other.chanceToFail) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Float.hashCode(chanceToFail);
+    }
+
     @Override
     public String toString() {
         return chanceToFail + " fail chance";
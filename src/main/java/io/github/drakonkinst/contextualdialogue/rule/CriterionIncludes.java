@@ -1,5 +1,8 @@
 package io.github.drakonkinst.contextualdialogue.rule;
 
+import io.github.drakonkinst.contextualdialogue.util.BitIntSet;
+import io.github.drakonkinst.contextualdialogue.util.CompactIntSets;
+import io.github.drakonkinst.contextualdialogue.util.SortedIntSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
 import java.util.Arrays;
@@ -8,6 +11,10 @@ public class CriterionIncludes implements ListCriterion {
     private final int[] values;
     private final boolean inverted;
 
+    // The values in the same layout as each compact list, so they can be compared without hashing
+    private final int[] sortedValues;
+    private final BitIntSet valueBits;  // Null unless the values are dense enough to be stored as a bitset
+
     public static CriterionIncludes of(final int[] values, final boolean inverted) {
         return new CriterionIncludes(values, inverted);
     }
@@ -15,17 +22,37 @@ public class CriterionIncludes implements ListCriterion {
     private CriterionIncludes(final int[] values, final boolean inverted) {
         this.values = values;
         this.inverted = inverted;
+        this.sortedValues = values.clone();
+        Arrays.sort(sortedValues);
+        if(CompactIntSets.fitsBitSet(sortedValues, sortedValues.length)) {
+            this.valueBits = new BitIntSet(sortedValues[0], sortedValues[sortedValues.length - 1]);
+            for(int value : sortedValues) {
+                valueBits.add(value);
+            }
+        } else {
+            this.valueBits = null;
+        }
     }
 
     public boolean compare(final IntSet set) {
-        boolean included = false;
+        final boolean included;
+        if(set instanceof SortedIntSet sortedSet) {
+            included = sortedSet.containsAny(sortedValues);
+        } else if(valueBits != null && set instanceof BitIntSet bitSet) {
+            included = bitSet.intersects(valueBits);
+        } else {
+            included = containsAny(set);
+        }
+        return inverted != included;
+    }
+
+    private boolean containsAny(final IntSet set) {
         for(int value : values) {
             if(set.contains(value)) {
-                included = true;
-                break;
+                return true;
             }
         }
-        return inverted != included;
+        return false;
     }
 
     @Override
@@ -33,6 +60,16 @@ public class CriterionIncludes implements ListCriterion {
         return 1;
     }
 
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof CriterionIncludes other && inverted == other.inverted && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(values) + Boolean.hashCode(inverted);
+    }
+
     @Override
     public String toString() {
         String valStr;
@@ -0,0 +1,59 @@
+package io.github.drakonkinst.contextualdialogue.rule;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The canonical criteria of a database. Presets copy their criteria into
+ * every entry that uses them, and authors repeat the same checks everywhere,
+ * so identical criteria are merged into one shared instance when the
+ * database is loaded.
+ * <p>
+ * Each distinct CriterionTuple is given an id, counting up from 0 in the
+ * order the tuples are first interned, so the ids are the same every time
+ * the same speechbanks are loaded. Identical Criterion objects are also
+ * shared between tuples that read different keys.
+ */
+public final class CriterionPool implements Serializable {
+    private final Map<CriterionTuple, CriterionTuple> tuples = new HashMap<>();
+    private final List<CriterionTuple> tuplesById = new ArrayList<>();
+    private final Map<Criterion, Criterion> criteria = new HashMap<>();
+    private long numInterned = 0;
+
+    // Returns the canonical tuple equal to the given one, which is given an id the first time it is seen
+    public CriterionTuple intern(final CriterionTuple tuple) {
+        ++numInterned;
+        final CriterionTuple canonical = tuples.get(tuple);
+        if(canonical != null) {
+            return canonical;
+        }
+
+        final Criterion criterion = criteria.computeIfAbsent(tuple.getCriterion(), k -> k);
+        final CriterionTuple added = criterion == tuple.getCriterion() ? tuple : new CriterionTuple(tuple.getContextKey(), criterion);
+        added.setId(tuplesById.size());
+        tuplesById.add(added);
+        tuples.put(added, added);
+        return added;
+    }
+
+    public CriterionTuple get(final int id) {
+        return tuplesById.get(id);
+    }
+
+    // Returns the number of distinct tuples, whose ids are all below this
+    public int size() {
+        return tuplesById.size();
+    }
+
+    public int getNumDistinctCriteria() {
+        return criteria.size();
+    }
+
+    // Returns how many tuples have been interned, counting every copy
+    public long getNumInterned() {
+        return numInterned;
+    }
+}
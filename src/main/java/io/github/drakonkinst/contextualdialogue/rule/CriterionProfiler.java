@@ -0,0 +1,83 @@
+package io.github.drakonkinst.contextualdialogue.rule;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how often each criterion of a CriterionPool passes and how long it
+ * takes to evaluate, so rules can check their most selective and cheapest
+ * criteria first.
+ * <p>
+ * Results answered from a query's memo are recorded with no cost, since a
+ * criterion shared by many rules is usually cheaper than it looks. Fail
+ * chances are not recorded, because rules never move them.
+ */
+public final class CriterionProfiler {
+    // A criterion needs this many observations before its pass rate is trusted
+    private static final long MIN_OBSERVATIONS = 32;
+
+    private final int numCriteria;
+    // Observations, passes and total nanoseconds of each criterion, interleaved by id
+    private final AtomicLongArray stats;
+
+    public CriterionProfiler(final CriterionPool pool) {
+        this.numCriteria = pool.size();
+        this.stats = new AtomicLongArray(numCriteria * 3);
+    }
+
+    public void record(final int id, final boolean passed, final long nanos) {
+        if(id < 0 || id >= numCriteria) {
+            return;
+        }
+        stats.incrementAndGet(id * 3);
+        if(passed) {
+            stats.incrementAndGet(id * 3 + 1);
+        }
+        if(nanos > 0) {
+            stats.addAndGet(id * 3 + 2, nanos);
+        }
+    }
+
+    public boolean isProfiled(final CriterionTuple tuple) {
+        final int id = tuple.getId();
+        return id >= 0 && id < numCriteria && stats.get(id * 3) >= MIN_OBSERVATIONS;
+    }
+
+    public long getNumObservations(final CriterionTuple tuple) {
+        final int id = tuple.getId();
+        return id >= 0 && id < numCriteria ? stats.get(id * 3) : 0;
+    }
+
+    public float getPassRate(final CriterionTuple tuple) {
+        final long observations = getNumObservations(tuple);
+        if(observations == 0) {
+            return 1.0f;
+        }
+        return (float) stats.get(tuple.getId() * 3 + 1) / observations;
+    }
+
+    public float getAverageCost(final CriterionTuple tuple) {
+        final long observations = getNumObservations(tuple);
+        if(observations == 0) {
+            return 0.0f;
+        }
+        return (float) stats.get(tuple.getId() * 3 + 2) / observations;
+    }
+
+    // Returns the expected cost of checking a criterion for each rule it rules out. Checking criteria in ascending
+    // rank minimizes the expected cost of a rule, treating its criteria as independent.
+    public double getRank(final CriterionTuple tuple) {
+        final float failRate = 1.0f - getPassRate(tuple);
+        // A criterion that never fails is only worth checking last
+        if(failRate <= 0.0f) {
+            return Double.POSITIVE_INFINITY;
+        }
+        // Every evaluation costs something, even if it was too fast for the timer
+        return (getAverageCost(tuple) + 1.0) / failRate;
+    }
+
+    public void reset() {
+        for(int i = 0; i < stats.length(); ++i) {
+            stats.set(i, 0L);
+        }
+    }
+}
@@ -6,24 +6,30 @@ import io.github.drakonkinst.contextualdialogue.util.StringCache;
 public class CriterionStatic implements FloatCriterion {
     public static final float EPSILON = 0.000001f;
 
+    // Kept for existing callers. Strings and booleans are compared as exact ints, like CriterionExact does, but
+    // these criteria are not indexed, so CriterionExact should be used instead.
+    @Deprecated
     public static CriterionStatic equals(final boolean flag) {
         return equals(flag, false);
     }
 
+    @Deprecated
     public static CriterionStatic equals(final String value) {
         return equals(value, false);
     }
 
-    public static CriterionStatic equals(final float value) {
-        return equals(value, false);
-    }
-
+    @Deprecated
     public static CriterionStatic equals(final boolean flag, final boolean inverse) {
-        return new CriterionStatic(ContextTable.fromBoolean(flag), inverse);
+        return new CriterionStatic(ContextTable.fromBoolean(flag), inverse, true);
     }
 
+    @Deprecated
     public static CriterionStatic equals(final String value, final boolean inverse) {
-        return new CriterionStatic(StringCache.cacheString(value), inverse);
+        return new CriterionStatic(StringCache.getDefault().cacheString(value), inverse, true);
+    }
+
+    public static CriterionStatic equals(final float value) {
+        return equals(value, false);
     }
 
     public static CriterionStatic equals(final float value, final boolean inverse) {
@@ -45,32 +51,85 @@ public class CriterionStatic implements FloatCriterion {
     private final float minValue;
     private final float maxValue;
     private final boolean inverted;
+    // Set by the deprecated string and boolean factories, which compare against exactValue instead of a range
+    private final boolean exact;
+    private final int exactValue;
 
     private CriterionStatic(final float value, final boolean inverted) {
-        this.minValue = value;
-        this.maxValue = value;
-        this.inverted = inverted;
+        this(value, value, inverted);
     }
 
     private CriterionStatic(final float minValue, final float maxValue, final boolean inverted) {
         this.minValue = minValue;
         this.maxValue = maxValue;
         this.inverted = inverted;
+        this.exact = false;
+        this.exactValue = 0;
+    }
+
+    private CriterionStatic(final int exactValue, final boolean inverted, final boolean exact) {
+        this.minValue = exactValue;
+        this.maxValue = exactValue;
+        this.inverted = inverted;
+        this.exact = exact;
+        this.exactValue = exactValue;
     }
 
     @Override
     public boolean compare(final float value) {
+        if(exact) {
+            return inverted != (exactValue == value);
+        }
         return inverted != (minValue <= value + EPSILON && value - EPSILON <= maxValue);
     }
 
+    @Override
+    public boolean compareExact(final int value) {
+        if(exact) {
+            return inverted != (exactValue == value);
+        }
+        return compare(value);
+    }
+
+    public float getMinValue() {
+        return minValue;
+    }
+
+    public float getMaxValue() {
+        return maxValue;
+    }
+
+    public boolean isInverted() {
+        return inverted;
+    }
+
+    // Returns true if this compares a string or boolean exactly, rather than a range of numbers
+    public boolean isExact() {
+        return exact;
+    }
+
     @Override
     public int getPriority() {
         return 3;
     }
 
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof CriterionStatic other && Float.compare(minValue, other.minValue) == 0 && Float.compare(maxValue, other.maxValue) == 0
+                && inverted == other.inverted && exact == other.exact && exactValue == other.exactValue;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * Float.hashCode(minValue) + Float.hashCode(maxValue)) + Boolean.hashCode(inverted)) + exactValue;
+    }
+
     @Override
     public String toString() {
         // This is way fancier than it deserves to be lol
+        if(exact) {
+            return (inverted ? "!= " : "= ") + exactValue;
+        }
         if(minValue == maxValue) {
             if(inverted) {
                 return "!= " + getDisplay(minValue);
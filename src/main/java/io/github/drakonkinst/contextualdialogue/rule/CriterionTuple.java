@@ -1,22 +1,102 @@
 package io.github.drakonkinst.contextualdialogue.rule;
 
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
 import io.github.drakonkinst.contextualdialogue.json.CriteriaParser;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 
 import java.io.Serializable;
 
 public class CriterionTuple implements Comparable<CriterionTuple>, Serializable {
-    private final String key;
-    private final String table;
+    public static final int NO_ID = -1;
+
+    private final ContextKey contextKey;
     private final Criterion criterion;
+    private int id = NO_ID;     // Assigned when interned by a CriterionPool
+    private final boolean failChance;
+    // Compiled when linked, or on first use for rules that were deserialized
+    private transient CriterionEvaluator evaluator;
 
     public CriterionTuple(final String key, final String table, final Criterion criterion) {
-        this.key = key;
-        this.table = table;
+        this.contextKey = new ContextKey(table, key);
+        this.criterion = criterion;
+        this.failChance = criterion instanceof CriterionFail;
+    }
+
+    CriterionTuple(final ContextKey contextKey, final Criterion criterion) {
+        this.contextKey = contextKey;
         this.criterion = criterion;
+        this.failChance = criterion instanceof CriterionFail;
+    }
+
+    // Resolves every context key this criterion reads
+    public void link() {
+        contextKey.link();
+        if(criterion instanceof CriterionDynamic criterionDynamic) {
+            criterionDynamic.link();
+        }
+        evaluator = compile();
+    }
+
+    public boolean evaluate(final SpeechQuery query) {
+        CriterionEvaluator compiled = evaluator;
+        if(compiled == null) {
+            compiled = compile();
+            evaluator = compiled;
+        }
+        return compiled.evaluate(query);
+    }
+
+    // Fail chances are random, so their results can never be reused or shared
+    public boolean isFailChance() {
+        return failChance;
+    }
+
+    // Binds the criterion to its key. Each concrete type gets its own lambda, so every call site inside is monomorphic.
+    private CriterionEvaluator compile() {
+        final ContextKey key = contextKey;
+        if(criterion instanceof CriterionStatic criterionStatic) {
+            return query -> criterionStatic.evaluate(key, query);
+        } else if(criterion instanceof CriterionExact criterionExact) {
+            return query -> criterionExact.evaluate(key, query);
+        } else if(criterion instanceof CriterionAlternate criterionAlternate) {
+            return query -> criterionAlternate.evaluate(key, query);
+        } else if(criterion instanceof CriterionIncludes criterionIncludes) {
+            return query -> criterionIncludes.evaluate(key, query);
+        } else if(criterion instanceof CriterionEmpty criterionEmpty) {
+            return query -> criterionEmpty.evaluate(key, query);
+        } else if(criterion instanceof CriterionExist criterionExist) {
+            return query -> criterionExist.evaluate(key, query);
+        } else if(criterion instanceof CriterionDynamic criterionDynamic) {
+            return query -> criterionDynamic.evaluate(key, query);
+        } else if(criterion instanceof CriterionFail criterionFail) {
+            return query -> criterionFail.evaluate();
+        } else if(criterion instanceof ListCriterion listCriterion) {
+            return query -> listCriterion.evaluate(key, query);
+        } else if(criterion instanceof FloatCriterion floatCriterion) {
+            return query -> floatCriterion.evaluate(key, query);
+        }
+        // Only fail when evaluated, like before criteria were compiled
+        final String typeName = criterion.getClass().getName();
+        return query -> {
+            throw new IllegalStateException("Unknown criterion type " + typeName);
+        };
+    }
+
+    // Returns the id of this tuple in its database's CriterionPool, or NO_ID if it was never interned
+    public int getId() {
+        return id;
+    }
+
+    void setId(final int id) {
+        this.id = id;
+    }
+
+    public ContextKey getContextKey() {
+        return contextKey;
     }
 
     public String getKey() {
-        return key;
+        return contextKey.getKey();
     }
 
     public Criterion getCriterion() {
@@ -24,7 +104,7 @@ public class CriterionTuple implements Comparable<CriterionTuple>, Serializable
     }
 
     public String getTable() {
-        return table;
+        return contextKey.getTable();
     }
 
     @Override
@@ -36,15 +116,24 @@ public class CriterionTuple implements Comparable<CriterionTuple>, Serializable
         return criterion.getPriority() - o.getCriterion().getPriority();
     }
 
+    // Two tuples are equal if they apply the same check to the same key, so identical criteria can be shared
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof CriterionTuple other && contextKey.equals(other.contextKey) && criterion.equals(other.criterion);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * contextKey.hashCode() + criterion.hashCode();
+    }
+
     @Override
     public String toString() {
+        final String key = contextKey.getKey();
         if(key.equals(CriteriaParser.KEY_DUMMY)
                 || key.equals(CriteriaParser.KEY_FAIL)) {
             return criterion.toString();
         }
-        if(table != null) {
-            return table + "." + key + " " + criterion;
-        }
-        return key + " " + criterion;
+        return contextKey + " " + criterion;
     }
 }
\ No newline at end of file
@@ -1,28 +1,46 @@
 package io.github.drakonkinst.contextualdialogue.rule;
 
 import io.github.drakonkinst.commonutil.MyLogger;
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.context.FactType;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 
-import java.util.Map;
+import java.util.logging.Level;
 
 public interface FloatCriterion extends Criterion {
     boolean compare(final float value);
 
-    default boolean evaluate(String key, String table, Map<String, ContextTable> contexts) {
-        ContextTable matchingTable = SpeechQuery.getMatchingTableFromMap(key, table, contexts);
-        String displayKey = ContextTable.getDisplayKey(key, table);
-        if(matchingTable == null || !matchingTable.contains(key)) {
-            MyLogger.finest("FAIL: No matching context for " + displayKey);
+    // Compares a string or boolean, whose value is an exact id rather than a number
+    default boolean compareExact(final int value) {
+        return compare(value);
+    }
+
+    default boolean evaluate(ContextKey contextKey, SpeechQuery query) {
+        ContextTable matchingTable = query.getMatchingTable(contextKey);
+        int keyId = contextKey.getKeyId();
+        FactType type = matchingTable == null ? FactType.NULL : matchingTable.getType(keyId);
+        if(type == FactType.NULL) {
+            if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+                MyLogger.finest("FAIL: No matching context for " + contextKey);
+            }
             return false;
         }
-        float valueToCompare = matchingTable.get(key);
-        boolean passed = compare(valueToCompare);
-
-        if(passed) {
-            MyLogger.finest("PASS: Key " + displayKey + " = " + valueToCompare + " is " + this);
+        boolean passed;
+        if(type == FactType.NUMBER) {
+            passed = compare(matchingTable.get(keyId));
         } else {
-            MyLogger.finest("FAIL: Key " + displayKey + " = " + valueToCompare + " is not " + this);
+            passed = compareExact(matchingTable.getAsInt(keyId));
+        }
+
+        // Only build the messages if they will be logged, since every rule check passes through here
+        if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+            float valueToCompare = matchingTable.get(keyId);
+            if(passed) {
+                MyLogger.finest("PASS: Key " + contextKey + " = " + valueToCompare + " is " + this);
+            } else {
+                MyLogger.finest("FAIL: Key " + contextKey + " = " + valueToCompare + " is not " + this);
+            }
         }
         return passed;
     }
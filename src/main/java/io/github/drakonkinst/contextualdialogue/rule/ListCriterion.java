@@ -1,30 +1,35 @@
 package io.github.drakonkinst.contextualdialogue.rule;
 
 import io.github.drakonkinst.commonutil.MyLogger;
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
 import io.github.drakonkinst.contextualdialogue.context.FactType;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
-import java.util.Map;
+import java.util.logging.Level;
 
 public interface ListCriterion extends Criterion {
     boolean compare(final IntSet set);
 
-    default boolean evaluate(String key, String table, Map<String, ContextTable> contexts) {
-        ContextTable matchingTable = SpeechQuery.getMatchingTableFromMap(key, table, contexts, FactType.LIST);
-        String displayKey = ContextTable.getDisplayKey(key, table);
-        if(matchingTable == null || !matchingTable.contains(key)) {
-            MyLogger.finest("FAIL: No matching context for " + displayKey);
+    default boolean evaluate(ContextKey contextKey, SpeechQuery query) {
+        ContextTable matchingTable = query.getMatchingTable(contextKey, FactType.LIST);
+        int keyId = contextKey.getKeyId();
+        if(matchingTable == null || !matchingTable.contains(keyId)) {
+            if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+                MyLogger.finest("FAIL: No matching context for " + contextKey);
+            }
             return false;
         }
-        IntSet set = matchingTable.getAsList(key);
+        IntSet set = matchingTable.getAsList(keyId);
         boolean passed = compare(set);
 
-        if(passed) {
-            MyLogger.finest("PASS: Key " + displayKey + " = " + set + " is " + this);
-        } else {
-            MyLogger.finest("FAIL: Key " + displayKey + " = " + set + " is not " + this);
+        if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+            if(passed) {
+                MyLogger.finest("PASS: Key " + contextKey + " = " + set + " is " + this);
+            } else {
+                MyLogger.finest("FAIL: Key " + contextKey + " = " + set + " is not " + this);
+            }
         }
         return passed;
     }
@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public class Rule implements Serializable {
@@ -12,7 +13,8 @@ public class Rule implements Serializable {
         return new Builder(size);
     }
 
-    private final CriterionTuple[] criteria;
+    // Replaced as a whole when reordered, so a query always sees one complete order
+    private volatile CriterionTuple[] criteria;
     private final int priority;
 
     private Rule(final CriterionTuple[] criteria, final int priority) {
@@ -36,6 +38,35 @@ public class Rule implements Serializable {
         return criteria;
     }
 
+    // Replaces each criterion with its canonical instance, which must happen before the rule is used by queries
+    public void internCriteria(final CriterionPool pool) {
+        for(int i = 0; i < criteria.length; ++i) {
+            criteria[i] = pool.intern(criteria[i]);
+        }
+    }
+
+    // Moves the criteria that fail most often for their cost to the front of each run between fail chances. Criteria
+    // never move past a fail chance, so each fail chance is rolled exactly when it was before, and criteria without
+    // enough observations keep their order after the profiled ones that can fail.
+    public void reorderCriteria(final CriterionProfiler profiler) {
+        final CriterionTuple[] current = criteria;
+        final CriterionTuple[] reordered = current.clone();
+        final Comparator<CriterionTuple> byRank = Comparator.comparingDouble(
+                tuple -> profiler.isProfiled(tuple) ? profiler.getRank(tuple) : Double.MAX_VALUE);
+        int runStart = 0;
+        for(int i = 0; i <= reordered.length; ++i) {
+            if(i == reordered.length || reordered[i].isFailChance()) {
+                if(i - runStart >= 2) {
+                    Arrays.sort(reordered, runStart, i, byRank);
+                }
+                runStart = i + 1;
+            }
+        }
+        if(!Arrays.equals(reordered, current)) {
+            criteria = reordered;
+        }
+    }
+
     @Override
     public String toString() {
         return "Rule{" +
@@ -0,0 +1,14 @@
+package io.github.drakonkinst.contextualdialogue.speech;
+
+/**
+ * How a speechbank finds the rules in a category that match a query. Every
+ * mode selects from the same matching rules, so they differ only in speed.
+ */
+public enum EvaluationMode {
+    // Checks every rule in the category in order, skipping those that read a key missing from the query
+    LINEAR,
+    // Only checks the rules that the category's CategoryIndex returns
+    INDEXED,
+    // Evaluates each distinct criterion in the category once and matches every rule at once with bitsets
+    BITSET
+}
@@ -1,76 +1,249 @@
 package io.github.drakonkinst.contextualdialogue.speech;
 
 import io.github.drakonkinst.commonutil.FastMath;
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
+import io.github.drakonkinst.contextualdialogue.context.ContextSet;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
 import io.github.drakonkinst.contextualdialogue.context.FactType;
+import io.github.drakonkinst.contextualdialogue.context.TablePriority;
 import io.github.drakonkinst.contextualdialogue.exception.SpeechException;
 import io.github.drakonkinst.contextualdialogue.function.FunctionLookup;
 import io.github.drakonkinst.contextualdialogue.function.FunctionSig;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionProfiler;
 import io.github.drakonkinst.contextualdialogue.token.Token;
 import io.github.drakonkinst.contextualdialogue.token.TokenList;
+import io.github.drakonkinst.contextualdialogue.util.KeyCache;
+import io.github.drakonkinst.contextualdialogue.util.StringCache;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class SpeechQuery {
-    private static final String[] DEFAULT_TABLES = { "event", "listener", "speaker", "location", "structure", "region", "world" };
     private static final int MAX_ATTEMPTS = 5;
     private static final IntSet EMPTY_SET = new IntOpenHashSet();
 
+    // Owner index values, offset by one so that 0 means the key has not been resolved yet
+    private static final byte UNRESOLVED = 0;
+    private static final byte NO_OWNER = -1;
+
+    public static final byte MEMO_UNKNOWN = 0;
+    public static final byte MEMO_PASSED = 1;
+    public static final byte MEMO_FAILED = 2;
+
+    // Kept for existing callers. Each call resolves the key through a new query, so reusing one query is much faster.
+    @Deprecated
     public static ContextTable getMatchingTableFromMap(String key, String tableName, Map<String, ContextTable> contexts, FactType factType) {
-        if(tableName == null) {
-            return findMatchingDefaultTable(key, contexts, factType);
-        }
-        return contexts.get(tableName);
+        return getMatchingTableFromMap(new ContextKey(tableName, key), contexts, factType);
     }
 
+    @Deprecated
     public static ContextTable getMatchingTableFromMap(String key, String tableName, Map<String, ContextTable> contexts) {
-        if(tableName == null) {
-            return findMatchingDefaultTable(key, contexts);
-        }
-        return contexts.get(tableName);
+        return getMatchingTableFromMap(new ContextKey(tableName, key), contexts);
     }
 
+    @Deprecated
     public static ContextTable getMatchingOrFirstAvailable(String key, String tableName, Map<String, ContextTable> contexts) {
-        if(tableName == null) {
-            ContextTable result = findMatchingDefaultTable(key, contexts);
+        return getMatchingOrFirstAvailable(new ContextKey(tableName, key), contexts);
+    }
+
+    @Deprecated
+    public static ContextTable getMatchingTableFromMap(ContextKey contextKey, Map<String, ContextTable> contexts, FactType factType) {
+        return new SpeechQuery(contexts, (FunctionLookup) null).getMatchingTable(contextKey, factType);
+    }
+
+    @Deprecated
+    public static ContextTable getMatchingTableFromMap(ContextKey contextKey, Map<String, ContextTable> contexts) {
+        return new SpeechQuery(contexts, (FunctionLookup) null).getMatchingTable(contextKey);
+    }
+
+    @Deprecated
+    public static ContextTable getMatchingOrFirstAvailable(ContextKey contextKey, Map<String, ContextTable> contexts) {
+        return new SpeechQuery(contexts, (FunctionLookup) null).getMatchingOrFirstAvailable(contextKey);
+    }
+
+    private final ContextSet contexts;
+    private final FunctionLookup functionLookup;
+    private final StringCache stringCache;
+
+    // Tables searched for keys without a table, in priority order, resolved once per query
+    private final ContextTable[] defaultTables;
+
+    // Maps each key id to the default table that owns it, so each key is probed at most once per query
+    private byte[] ownerIndex = null;
+    private int numTableProbes = 0;
+    private int numRulesChecked = 0;
+
+    // Results of the criteria this query has evaluated, indexed by CriterionTuple id and cleared whenever a fact changes
+    private byte[] criterionMemo = null;
+    private int numCriteriaEvaluated = 0;
+    private int numCriteriaMemoized = 0;
+    private CriterionProfiler profiler = null;
+
+    // Previous list choices
+    private final Map<TokenList, IntSet> usedChoiceMap = new HashMap<>();
+    private final List<String> prevChoices = new ArrayList<>();
+    private final IntList prevChosenIndices = new IntArrayList();
+
+    public SpeechQuery(ContextSet contexts) {
+        this(contexts, SpeechbankDatabase.getInstance());
+    }
+
+    public SpeechQuery(ContextSet contexts, SpeechbankDatabase database) {
+        this(contexts, database.getFunctionLookup(), database.getTablePriority(), database.getStringCache());
+    }
+
+    public SpeechQuery(ContextSet contexts, FunctionLookup functionLookup) {
+        this(contexts, functionLookup, TablePriority.DEFAULT);
+    }
+
+    public SpeechQuery(ContextSet contexts, FunctionLookup functionLookup, TablePriority tablePriority) {
+        this(contexts, functionLookup, tablePriority, StringCache.getDefault());
+    }
+
+    public SpeechQuery(ContextSet contexts, FunctionLookup functionLookup, TablePriority tablePriority, StringCache stringCache) {
+        this.contexts = contexts;
+        this.functionLookup = functionLookup;
+        this.stringCache = stringCache;
+        this.defaultTables = tablePriority.resolve(contexts);
+    }
+
+    public SpeechQuery(Map<String, ContextTable> contexts) {
+        this(ContextSet.fromMap(contexts));
+    }
+
+    public SpeechQuery(Map<String, ContextTable> contexts, FunctionLookup functionLookup) {
+        this(ContextSet.fromMap(contexts), functionLookup);
+    }
+
+    public ContextTable getMatchingTable(ContextKey contextKey) {
+        int tableSlot = contextKey.getTableSlot();
+        if(tableSlot == ContextSet.ANY) {
+            return findOwner(contextKey.getKeyId());
+        }
+        return contexts.get(tableSlot, contextKey.getTable());
+    }
+
+    public ContextTable getMatchingTable(ContextKey contextKey, FactType factType) {
+        int tableSlot = contextKey.getTableSlot();
+        if(tableSlot == ContextSet.ANY) {
+            return findOwner(contextKey.getKeyId(), factType);
+        }
+        return contexts.get(tableSlot, contextKey.getTable());
+    }
+
+    public ContextTable getMatchingOrFirstAvailable(ContextKey contextKey) {
+        int tableSlot = contextKey.getTableSlot();
+        if(tableSlot == ContextSet.ANY) {
+            ContextTable result = findOwner(contextKey.getKeyId());
             if(result == null) {
-                return findFirstAvailableTable(contexts);
+                return findFirstAvailableTable();
             }
             return result;
         }
-        return contexts.get(tableName);
+        return contexts.get(tableSlot, contextKey.getTable());
     }
 
-    private static ContextTable findMatchingDefaultTable(String key, Map<String, ContextTable> contexts, FactType factType) {
-        for(String tableName : DEFAULT_TABLES) {
-            ContextTable table = contexts.get(tableName);
-            if(table != null && table.contains(key, factType)) {
-                return table;
+    // Must be called after a fact is added, removed or changed, since that can change which table owns the key
+    // and the result of every criterion that reads it
+    public void invalidate(int keyId) {
+        if(ownerIndex != null && keyId < ownerIndex.length) {
+            ownerIndex[keyId] = UNRESOLVED;
+        }
+        if(criterionMemo != null) {
+            Arrays.fill(criterionMemo, MEMO_UNKNOWN);
+        }
+    }
+
+    // Must be called after facts are changed without knowing which, such as by an action written against the old map API
+    public void invalidateAll() {
+        if(ownerIndex != null) {
+            Arrays.fill(ownerIndex, UNRESOLVED);
+        }
+        if(criterionMemo != null) {
+            Arrays.fill(criterionMemo, MEMO_UNKNOWN);
+        }
+    }
+
+    // Returns MEMO_PASSED or MEMO_FAILED if this query has already evaluated the criterion, or MEMO_UNKNOWN
+    public byte getMemoizedResult(int criterionId) {
+        if(criterionMemo == null || criterionId >= criterionMemo.length) {
+            return MEMO_UNKNOWN;
+        }
+        byte result = criterionMemo[criterionId];
+        if(result != MEMO_UNKNOWN) {
+            ++numCriteriaMemoized;
+        }
+        return result;
+    }
+
+    public void memoizeResult(int criterionId, boolean passed) {
+        if(criterionMemo == null || criterionId >= criterionMemo.length) {
+            int length = criterionMemo == null ? 0 : criterionMemo.length;
+            criterionMemo = Arrays.copyOf(criterionMemo == null ? new byte[0] : criterionMemo, Math.max(criterionId + 1, length * 2));
+        }
+        criterionMemo[criterionId] = passed ? MEMO_PASSED : MEMO_FAILED;
+    }
+
+    private ContextTable findOwner(int keyId) {
+        if(keyId == KeyCache.NULL) {
+            return null;
+        }
+        if(ownerIndex == null || keyId >= ownerIndex.length) {
+            ownerIndex = Arrays.copyOf(ownerIndex == null ? new byte[0] : ownerIndex, Math.max(keyId + 1, KeyCache.getSize() + 1));
+        }
+
+        byte owner = ownerIndex[keyId];
+        if(owner == UNRESOLVED) {
+            owner = NO_OWNER;
+            for(int i = 0; i < defaultTables.length; ++i) {
+                ContextTable table = defaultTables[i];
+                if(table == null) {
+                    continue;
+                }
+                ++numTableProbes;
+                if(table.contains(keyId)) {
+                    owner = (byte) (i + 1);
+                    break;
+                }
             }
+            ownerIndex[keyId] = owner;
         }
-        return null;
+
+        if(owner == NO_OWNER) {
+            return null;
+        }
+        return defaultTables[owner - 1];
     }
 
-    private static ContextTable findMatchingDefaultTable(String key, Map<String, ContextTable> contexts) {
-        for(String tableName : DEFAULT_TABLES) {
-            ContextTable table = contexts.get(tableName);
-            if(table != null && table.contains(key)) {
+    // The first table holding the key is usually the typed match too, otherwise keep searching past it
+    private ContextTable findOwner(int keyId, FactType factType) {
+        ContextTable owner = findOwner(keyId);
+        if(owner == null || owner.getType(keyId) == factType) {
+            return owner;
+        }
+
+        for(int i = ownerIndex[keyId]; i < defaultTables.length; ++i) {
+            ContextTable table = defaultTables[i];
+            if(table == null) {
+                continue;
+            }
+            ++numTableProbes;
+            if(table.contains(keyId, factType)) {
                 return table;
             }
         }
         return null;
     }
 
-    private static ContextTable findFirstAvailableTable(Map<String, ContextTable> contexts) {
-        for(String tableName : DEFAULT_TABLES) {
-            ContextTable table = contexts.get(tableName);
+    private ContextTable findFirstAvailableTable() {
+        for(ContextTable table : defaultTables) {
             if(table != null) {
                 return table;
             }
@@ -78,22 +251,39 @@ public class SpeechQuery {
         return null;
     }
 
-    private final Map<String, ContextTable> contexts;
-    private final FunctionLookup functionLookup;
+    public void onRuleChecked() {
+        ++numRulesChecked;
+    }
 
-    // Previous list choices
-    private final Map<TokenList, IntSet> usedChoiceMap = new HashMap<>();
-    private final List<String> prevChoices = new ArrayList<>();
-    private final IntList prevChosenIndices = new IntArrayList();
+    public int getNumTableProbes() {
+        return numTableProbes;
+    }
 
-    public SpeechQuery(Map<String, ContextTable> contexts) {
-        this.contexts = contexts;
-        this.functionLookup = SpeechbankDatabase.getInstance().getFunctionLookup();
+    public int getNumRulesChecked() {
+        return numRulesChecked;
     }
 
-    public SpeechQuery(Map<String, ContextTable> contexts, FunctionLookup functionLookup) {
-        this.contexts = contexts;
-        this.functionLookup = functionLookup;
+    public void onCriterionEvaluated() {
+        ++numCriteriaEvaluated;
+    }
+
+    // Returns how many criteria were actually evaluated
+    public int getNumCriteriaEvaluated() {
+        return numCriteriaEvaluated;
+    }
+
+    // Returns how many criteria were answered from the memo instead, which were evaluated again before memoization
+    public int getNumCriteriaMemoized() {
+        return numCriteriaMemoized;
+    }
+
+    // Records every criterion this query evaluates in the profiler, or stops recording if it is null
+    public void setProfiler(CriterionProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public CriterionProfiler getProfiler() {
+        return profiler;
     }
 
     public int getValidChoice(TokenList token) {
@@ -145,43 +335,63 @@ public class SpeechQuery {
     }
 
     public FactType getContextType(String tableName, String key) {
-        ContextTable table = getMatchingTableFromMap(key, tableName, contexts);
+        return getContextType(new ContextKey(tableName, key));
+    }
+
+    public FactType getContextType(ContextKey contextKey) {
+        ContextTable table = getMatchingTable(contextKey);
         if(table == null) {
             return FactType.NULL;
         }
-        return table.getType(key);
+        return table.getType(contextKey.getKeyId());
     }
 
     public String getContextAsString(String tableName, String key) throws SpeechException {
-        ContextTable table = getMatchingTableFromMap(key, tableName, contexts, FactType.STRING);
+        return getContextAsString(new ContextKey(tableName, key));
+    }
+
+    public String getContextAsString(ContextKey contextKey) throws SpeechException {
+        ContextTable table = getMatchingTable(contextKey, FactType.STRING);
         if(table == null) {
-            throw new SpeechException("No matching context table found for table \"" + tableName + "\" and key \"" + key + "\" of type STRING");
+            throw new SpeechException("No matching context table found for table \"" + contextKey.getTable() + "\" and key \"" + contextKey.getKey() + "\" of type STRING");
         }
-        return table.getAsString(key);
+        return table.getAsString(contextKey.getKeyId());
     }
 
     public float getContextAsFloat(String tableName, String key) throws SpeechException {
-        ContextTable table = getMatchingTableFromMap(key, tableName, contexts, FactType.NUMBER);
+        return getContextAsFloat(new ContextKey(tableName, key));
+    }
+
+    public float getContextAsFloat(ContextKey contextKey) throws SpeechException {
+        ContextTable table = getMatchingTable(contextKey, FactType.NUMBER);
         if(table == null) {
-            throw new SpeechException("No matching context table found for table \"" + tableName + "\" and key \"" + key + "\" of type NUMBER");
+            throw new SpeechException("No matching context table found for table \"" + contextKey.getTable() + "\" and key \"" + contextKey.getKey() + "\" of type NUMBER");
         }
-        return table.getAsNumber(key);
+        return table.getAsNumber(contextKey.getKeyId());
     }
 
     public boolean getContextAsBoolean(String tableName, String key) throws SpeechException {
-        ContextTable table = getMatchingTableFromMap(key, tableName, contexts, FactType.BOOLEAN);
+        return getContextAsBoolean(new ContextKey(tableName, key));
+    }
+
+    public boolean getContextAsBoolean(ContextKey contextKey) throws SpeechException {
+        ContextTable table = getMatchingTable(contextKey, FactType.BOOLEAN);
         if(table == null) {
-            throw new SpeechException("No matching context table found for table \"" + tableName + "\" and key \"" + key + "\" of type BOOLEAN");
+            throw new SpeechException("No matching context table found for table \"" + contextKey.getTable() + "\" and key \"" + contextKey.getKey() + "\" of type BOOLEAN");
         }
-        return table.getAsBoolean(key);
+        return table.getAsBoolean(contextKey.getKeyId());
     }
 
     public IntSet getContextAsList(String tableName, String key) throws SpeechException {
-        ContextTable table = getMatchingTableFromMap(key, tableName, contexts, FactType.LIST);
+        return getContextAsList(new ContextKey(tableName, key));
+    }
+
+    public IntSet getContextAsList(ContextKey contextKey) throws SpeechException {
+        ContextTable table = getMatchingTable(contextKey, FactType.LIST);
         if(table == null) {
-            throw new SpeechException("No matching context table found for table \"" + tableName + "\" and key \"" + key + "\" of type LIST");
+            throw new SpeechException("No matching context table found for table \"" + contextKey.getTable() + "\" and key \"" + contextKey.getKey() + "\" of type LIST");
         }
-        return table.getAsList(key);
+        return table.getAsList(contextKey.getKeyId());
     }
 
     public FunctionSig getFunctionSig(String functionName) throws SpeechException {
@@ -192,7 +402,11 @@ public class SpeechQuery {
         return sig;
     }
 
-    public Map<String, ContextTable> getContexts() {
+    public ContextSet getContexts() {
         return contexts;
     }
+
+    public StringCache getStringCache() {
+        return stringCache;
+    }
 }
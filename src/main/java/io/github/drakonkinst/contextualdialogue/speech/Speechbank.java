@@ -2,50 +2,89 @@ package io.github.drakonkinst.contextualdialogue.speech;
 
 import io.github.drakonkinst.commonutil.FastMath;
 import io.github.drakonkinst.commonutil.MyLogger;
-import io.github.drakonkinst.contextualdialogue.context.ContextTable;
-import io.github.drakonkinst.contextualdialogue.rule.Criterion;
-import io.github.drakonkinst.contextualdialogue.rule.CriterionDynamic;
-import io.github.drakonkinst.contextualdialogue.rule.CriterionExist;
 import io.github.drakonkinst.contextualdialogue.rule.CriterionFail;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionProfiler;
 import io.github.drakonkinst.contextualdialogue.rule.CriterionTuple;
-import io.github.drakonkinst.contextualdialogue.rule.FloatCriterion;
-import io.github.drakonkinst.contextualdialogue.rule.ListCriterion;
 import io.github.drakonkinst.contextualdialogue.rule.Rule;
+import io.github.drakonkinst.contextualdialogue.speech.index.CategoryIndex;
+import io.github.drakonkinst.contextualdialogue.speech.index.CriterionMatrix;
+import io.github.drakonkinst.contextualdialogue.speech.index.KeyPresenceFilter;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 
 public class Speechbank implements Serializable {
 
-    public static boolean match(Rule rule, Map<String, ContextTable> contexts, boolean skipFailCriteria) {
-        int numCriteria = rule.getSize();
-        for(int i = 0; i < numCriteria; ++i) {
-            if(!evaluateCriterion(rule.getTupleAt(i), contexts, skipFailCriteria)) {
+    public static boolean match(Rule rule, SpeechQuery query, boolean skipFailCriteria) {
+        // Read the criteria once, since the rule may be reordered while it is being matched
+        CriterionTuple[] criteria = rule.getCriteria();
+        for(CriterionTuple criterion : criteria) {
+            if(!evaluateCriterion(criterion, query, skipFailCriteria)) {
                 return false;
             }
         }
         return true;
     }
 
-    private static boolean evaluateCriterion(CriterionTuple info, Map<String, ContextTable> contexts, boolean skipFailCriteria) {
-        String key = info.getKey();
-        String table = info.getTable();
-        Criterion criterion = info.getCriterion();
+    // Evaluates a criterion, reusing its result if the query already evaluated it. Fail chances are rolled every time.
+    public static boolean evaluateCriterion(CriterionTuple info, SpeechQuery query, boolean skipFailCriteria) {
+        if(info.isFailChance()) {
+            if(skipFailCriteria) {
+                return true;
+            }
+            query.onCriterionEvaluated();
+            return info.evaluate(query);
+        }
+
+        int id = info.getId();
+        if(id == CriterionTuple.NO_ID) {
+            query.onCriterionEvaluated();
+            return info.evaluate(query);
+        }
+        CriterionProfiler profiler = query.getProfiler();
+        byte memoized = query.getMemoizedResult(id);
+        if(memoized != SpeechQuery.MEMO_UNKNOWN) {
+            boolean passed = memoized == SpeechQuery.MEMO_PASSED;
+            if(profiler != null) {
+                profiler.record(id, passed, 0L);
+            }
+            return passed;
+        }
+        query.onCriterionEvaluated();
+        boolean passed;
+        if(profiler != null) {
+            long start = System.nanoTime();
+            passed = info.evaluate(query);
+            profiler.record(id, passed, System.nanoTime() - start);
+        } else {
+            passed = info.evaluate(query);
+        }
+        query.memoizeResult(id, passed);
+        return passed;
+    }
 
-        if(criterion instanceof CriterionFail criterionFail) {
-            return skipFailCriteria || criterionFail.evaluate();
-        } else if(criterion instanceof CriterionDynamic criterionDynamic) {
-            return criterionDynamic.evaluate(key, table, contexts);
-        } else if(criterion instanceof CriterionExist criterionExist) {
-            return criterionExist.evaluate(key, table, contexts);
-        } else if(criterion instanceof ListCriterion listCriterion) {
-            return listCriterion.evaluate(key, table, contexts);
-        } else if(criterion instanceof FloatCriterion floatCriterion) {
-            return floatCriterion.evaluate(key, table, contexts);
+    // Rolls only the fail chances of a rule, for rules whose other criteria are already known to pass
+    private static boolean matchFailCriteria(Rule rule) {
+        for(CriterionTuple tuple : rule.getCriteria()) {
+            if(tuple.getCriterion() instanceof CriterionFail criterionFail && !criterionFail.evaluate()) {
+                return false;
+            }
         }
-        throw new IllegalStateException("Unknown criterion type " + criterion.getClass().getName());
+        return true;
+    }
+
+    private static boolean hasFailChance(Rule rule) {
+        for(CriterionTuple tuple : rule.getCriteria()) {
+            if(tuple.isFailChance()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static SpeechbankEntry pickRandomEntry(List<SpeechbankEntry> options) {
@@ -60,22 +99,64 @@ public class Speechbank implements Serializable {
 
     private final String parent;
     private final Map<String, SpeechbankEntry[]> categoryToEntryMap;
+    private final Map<String, CategoryIndex> categoryToIndexMap = new HashMap<>();
+    // Built the first time a category is matched in BITSET mode
+    private final Map<String, CriterionMatrix> categoryToMatrixMap = new ConcurrentHashMap<>();
 
     public Speechbank(String parent, Map<String, SpeechbankEntry[]> categoryToEntryMap) {
         this.parent = parent;
         this.categoryToEntryMap = categoryToEntryMap;
+        for(Map.Entry<String, SpeechbankEntry[]> entry : categoryToEntryMap.entrySet()) {
+            categoryToIndexMap.put(entry.getKey(), CategoryIndex.build(entry.getValue()));
+        }
+    }
+
+    public SpeechbankEntry selectEntry(String category, SpeechQuery query) {
+        return selectEntry(category, query, EvaluationMode.INDEXED);
     }
 
-    public SpeechbankEntry selectEntry(String category, Map<String, ContextTable> contexts) {
+    public SpeechbankEntry selectEntry(String category, SpeechQuery query, EvaluationMode mode) {
         SpeechbankEntry[] entries = categoryToEntryMap.get(category);
         if(entries == null) {
             MyLogger.severe("Unknown speech category \"" + category + "\"");
             return null;
         }
-
         List<SpeechbankEntry> candidates = new ArrayList<>();
+        scan(category, entries, query, mode, candidates);
+        return pickRandomEntry(candidates);
+    }
+
+    // Returns the most rules that selectEntry() can check for the query in the mode, which is when every fail chance
+    // passes but rules with fail chances never end the scan early
+    public int countMaxCheckedRules(String category, SpeechQuery query, EvaluationMode mode) {
+        SpeechbankEntry[] entries = categoryToEntryMap.get(category);
+        if(entries == null) {
+            return 0;
+        }
+        int numCheckedBefore = query.getNumRulesChecked();
+        scan(category, entries, query, mode, null);
+        return query.getNumRulesChecked() - numCheckedBefore;
+    }
+
+    // Checks the rules of the category that the mode selects, adding the matches of the highest priority to the
+    // candidates. If candidates is null, fail chances are assumed to pass and only rules without them count as matches.
+    private void scan(String category, SpeechbankEntry[] entries, SpeechQuery query, EvaluationMode mode, List<SpeechbankEntry> candidates) {
+        // Entries are visited in their original order, so every mode selects from the same matches
+        long[] toCheck;
+        if(mode == EvaluationMode.BITSET) {
+            toCheck = getMatrixFor(category).findMatches(query);
+        } else if(mode == EvaluationMode.INDEXED) {
+            toCheck = categoryToIndexMap.get(category).findCandidates(query);
+        } else {
+            toCheck = CategoryIndex.allCandidates(entries.length);
+        }
+        // The candidates of the other modes already have every key they require, so only linear scans need the filter
+        KeyPresenceFilter presenceFilter = mode == EvaluationMode.LINEAR ? categoryToIndexMap.get(category).getPresenceFilter() : null;
+        long probedKeys = 0L;
+        long presentKeys = 0L;
         int highestMatchingPriority = -999;
-        for(SpeechbankEntry entry : entries) {
+        for(int i = CategoryIndex.nextCandidate(toCheck, 0); i >= 0; i = CategoryIndex.nextCandidate(toCheck, i + 1)) {
+            SpeechbankEntry entry = entries[i];
             if(entry.isEmpty()) {
                 continue;
             }
@@ -84,24 +165,68 @@ public class Speechbank implements Serializable {
             if(priority < highestMatchingPriority) {
                 break;
             }
+            if(presenceFilter != null) {
+                long required = presenceFilter.getSignature(i);
+                long unprobed = required & ~probedKeys;
+                if(unprobed != 0L) {
+                    presentKeys |= presenceFilter.probe(query, unprobed);
+                    probedKeys |= unprobed;
+                }
+                if((required & ~presentKeys) != 0L) {
+                    continue;
+                }
+            }
 
-            MyLogger.finest("Checking " + rule);
-            if(match(rule, contexts, false)) {
+            if(MyLogger.getLogger().isLoggable(Level.FINEST)) {
+                MyLogger.finest("Checking " + rule);
+            }
+            query.onRuleChecked();
+            boolean matched;
+            if(candidates == null) {
+                matched = !hasFailChance(rule) && (mode == EvaluationMode.BITSET || match(rule, query, true));
+            } else {
+                matched = mode == EvaluationMode.BITSET ? matchFailCriteria(rule) : match(rule, query, false);
+            }
+            if(matched) {
                 if(priority > highestMatchingPriority) {
                     highestMatchingPriority = priority;
-                    candidates.clear();
+                    if(candidates != null) {
+                        candidates.clear();
+                    }
+                }
+                if(candidates != null) {
+                    candidates.add(entry);
                 }
+            }
+        }
+    }
 
-                candidates.add(entry);
+    // Reorders the criteria of every rule by what the profiler has observed, which does not change which rules match
+    public void reorderCriteria(CriterionProfiler profiler) {
+        for(SpeechbankEntry[] entries : categoryToEntryMap.values()) {
+            for(SpeechbankEntry entry : entries) {
+                entry.getRule().reorderCriteria(profiler);
             }
         }
-        return pickRandomEntry(candidates);
     }
 
     public SpeechbankEntry[] getEntriesFor(String category) {
         return categoryToEntryMap.get(category);
     }
 
+    public CategoryIndex getIndexFor(String category) {
+        return categoryToIndexMap.get(category);
+    }
+
+    // Returns the matrix for BITSET mode, building it if no query has used it yet
+    public CriterionMatrix getMatrixFor(String category) {
+        SpeechbankEntry[] entries = categoryToEntryMap.get(category);
+        if(entries == null) {
+            return null;
+        }
+        return categoryToMatrixMap.computeIfAbsent(category, k -> CriterionMatrix.build(entries));
+    }
+
     public Map<String, SpeechbankEntry[]> getEntries() {
         return categoryToEntryMap;
     }
@@ -1,14 +1,24 @@
 package io.github.drakonkinst.contextualdialogue.speech;
 
 import io.github.drakonkinst.commonutil.MyLogger;
+import io.github.drakonkinst.contextualdialogue.context.ContextSet;
 import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.context.TablePriority;
 import io.github.drakonkinst.contextualdialogue.exception.SpeechException;
 import io.github.drakonkinst.contextualdialogue.function.FunctionLookup;
 import io.github.drakonkinst.contextualdialogue.function.FunctionSig;
 import io.github.drakonkinst.contextualdialogue.json.SpeechbankParser;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionPool;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionProfiler;
+import io.github.drakonkinst.contextualdialogue.util.FrozenStringTable;
+import io.github.drakonkinst.contextualdialogue.util.StringCache;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SpeechbankDatabase implements Serializable {
     private static SpeechbankDatabase instance = null;
@@ -17,7 +27,51 @@ public class SpeechbankDatabase implements Serializable {
         if(instance != null) {
             throw new IllegalStateException("Database is already initialized");
         }
-        instance = new SpeechbankDatabase(SpeechbankParser.loadDatabase(path, isInternalFile, functionLookup), functionLookup);
+        instance = create(path, isInternalFile, functionLookup, StringCache.getDefault());
+    }
+
+    /**
+     * Loads a database that is independent of the global instance, with its
+     * own StringCache. Several databases can be loaded at once, such as while
+     * reloading a database, without affecting each other's context tables.
+     * Tables used with the database should be created by createContextTable().
+     */
+    public static SpeechbankDatabase create(String path, boolean isInternalFile, FunctionLookup functionLookup) {
+        return create(path, isInternalFile, functionLookup, new StringCache());
+    }
+
+    /**
+     * Loads an independent database like create(), whose StringCache starts
+     * from a vocabulary file of the strings used by the speechbanks. The file
+     * is mapped into memory if it exists, so parsing only has to look strings
+     * up instead of caching them one at a time, and is rewritten after loading
+     * if it is missing or the speechbanks use strings it does not contain.
+     */
+    public static SpeechbankDatabase create(String path, boolean isInternalFile, FunctionLookup functionLookup, Path vocabularyPath) {
+        StringCache stringCache = new StringCache(loadVocabulary(vocabularyPath));
+        SpeechbankDatabase database = create(path, isInternalFile, functionLookup, stringCache);
+        if(stringCache.getSize() > stringCache.getFrozenSize()) {
+            database.saveVocabulary(vocabularyPath);
+        }
+        return database;
+    }
+
+    private static FrozenStringTable loadVocabulary(Path vocabularyPath) {
+        if(!Files.exists(vocabularyPath)) {
+            return null;
+        }
+        try {
+            return FrozenStringTable.load(vocabularyPath);
+        } catch(IOException e) {
+            MyLogger.warning("Failed to load vocabulary from \"" + vocabularyPath + "\", so it will be rebuilt: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static SpeechbankDatabase create(String path, boolean isInternalFile, FunctionLookup functionLookup, StringCache stringCache) {
+        CriterionPool criterionPool = new CriterionPool();
+        return new SpeechbankDatabase(SpeechbankParser.loadDatabase(path, isInternalFile, functionLookup, stringCache, criterionPool),
+                functionLookup, stringCache, criterionPool);
     }
 
     public static SpeechbankDatabase getInstance() {
@@ -29,10 +83,23 @@ public class SpeechbankDatabase implements Serializable {
 
     private final Map<String, Speechbank> groupToSpeechbankMap;
     private final FunctionLookup functionLookup;
+    private final StringCache stringCache;
+    private final CriterionPool criterionPool;
+    private TablePriority tablePriority = TablePriority.DEFAULT;
+    private EvaluationMode evaluationMode = EvaluationMode.INDEXED;
+    // Only set while profiling, which reorders the criteria of every rule after each interval of selections
+    private transient volatile CriterionProfiler profiler = null;
+    private transient int reorderInterval = 0;
+    private transient AtomicInteger selectionsUntilReorder = null;
 
-    private SpeechbankDatabase(Map<String, Speechbank> groupToSpeechbankMap, FunctionLookup functionLookup) {
+    private SpeechbankDatabase(Map<String, Speechbank> groupToSpeechbankMap,
+                               FunctionLookup functionLookup,
+                               StringCache stringCache,
+                               CriterionPool criterionPool) {
         this.groupToSpeechbankMap = groupToSpeechbankMap;
         this.functionLookup = functionLookup;
+        this.stringCache = stringCache;
+        this.criterionPool = criterionPool;
     }
 
     public SpeechResult generateLine(String group, String category, SpeechQuery speechQuery) {
@@ -43,7 +110,14 @@ public class SpeechbankDatabase implements Serializable {
             return null;
         }
 
-        SpeechbankEntry chosenEntry = speechbank.selectEntry(category, speechQuery.getContexts());
+        CriterionProfiler currentProfiler = profiler;
+        speechQuery.setProfiler(currentProfiler);
+        if(currentProfiler != null && selectionsUntilReorder.decrementAndGet() == 0) {
+            selectionsUntilReorder.set(reorderInterval);
+            reorderCriteria(currentProfiler);
+        }
+
+        SpeechbankEntry chosenEntry = speechbank.selectEntry(category, speechQuery, evaluationMode);
         String parent = speechbank.getParent();
         if(chosenEntry == null) {
             if(parent == null) {
@@ -53,7 +127,7 @@ public class SpeechbankDatabase implements Serializable {
             }
         }
 
-        chosenEntry.performActions(speechQuery.getContexts());
+        chosenEntry.performActions(speechQuery);
         SpeechResult generatedLine = chosenEntry.generateLine(speechQuery);
         if(generatedLine == null && parent != null) {
             return generateLine(parent, category, speechQuery);
@@ -61,12 +135,83 @@ public class SpeechbankDatabase implements Serializable {
         return generatedLine;
     }
 
-    public void validateContextTables(Map<String, ContextTable> contextTables) {
-        for(Map.Entry<String, ContextTable> entry : contextTables.entrySet()) {
-            if(entry.getValue().isOutdated()) {
-                MyLogger.warning("Context table for key " + entry.getKey() + " is outdated and should be regenerated:\n" + entry.getValue().toString());
+    // Only compares the StringCache of each table, so it is cheap enough to run on every line
+    public void validateContextTables(ContextSet contextTables) {
+        contextTables.forEach((tableName, table) -> {
+            if(table.getStringCache() != stringCache) {
+                MyLogger.warning("Context table for key " + tableName + " uses StringCache generation " + table.getStringCache().getGeneration()
+                        + " but the database uses generation " + stringCache.getGeneration() + ", so its strings will not match");
             }
+        });
+    }
+
+    // Creates an empty context table that caches its strings in this database's StringCache
+    public ContextTable createContextTable() {
+        return new ContextTable(stringCache);
+    }
+
+    public StringCache getStringCache() {
+        return stringCache;
+    }
+
+    // Returns the canonical criteria of this database, whose ids identify each distinct criterion
+    public CriterionPool getCriterionPool() {
+        return criterionPool;
+    }
+
+    // Writes every string currently in this database's StringCache to a vocabulary file for create() to load
+    public void saveVocabulary(Path vocabularyPath) {
+        try {
+            stringCache.freeze().save(vocabularyPath);
+        } catch(IOException e) {
+            MyLogger.severe("Error: Failed to save vocabulary to \"" + vocabularyPath + "\"", e);
+        }
+    }
+
+    // Sets the order in which tables are searched for context keys that do not specify a table
+    public void setTablePriority(String... tableNames) {
+        tablePriority = new TablePriority(tableNames);
+    }
+
+    public TablePriority getTablePriority() {
+        return tablePriority;
+    }
+
+    // Sets how speechbanks find the matching rules in a category, which does not change which rules match
+    public void setEvaluationMode(EvaluationMode evaluationMode) {
+        this.evaluationMode = evaluationMode;
+    }
+
+    public EvaluationMode getEvaluationMode() {
+        return evaluationMode;
+    }
+
+    // Starts recording how each criterion performs, and reorders the criteria of every rule after every
+    // reorderInterval selections. Which rules match is unchanged, only how quickly they are ruled out.
+    public void enableProfiling(int reorderInterval) {
+        if(reorderInterval <= 0) {
+            throw new IllegalArgumentException("Reorder interval must be positive, got " + reorderInterval);
+        }
+        this.reorderInterval = reorderInterval;
+        this.selectionsUntilReorder = new AtomicInteger(reorderInterval);
+        this.profiler = new CriterionProfiler(criterionPool);
+    }
+
+    // Stops recording, keeping the order the criteria were last given
+    public void disableProfiling() {
+        profiler = null;
+    }
+
+    public CriterionProfiler getProfiler() {
+        return profiler;
+    }
+
+    // Reorders the criteria of every rule by what the profiler has observed so far
+    public void reorderCriteria(CriterionProfiler profiler) {
+        for(Speechbank speechbank : groupToSpeechbankMap.values()) {
+            speechbank.reorderCriteria(profiler);
         }
+        MyLogger.finer("Reordered criteria of every rule");
     }
 
     public FunctionLookup getFunctionLookup() {
@@ -3,13 +3,11 @@ package io.github.drakonkinst.contextualdialogue.speech;
 import io.github.drakonkinst.contextualdialogue.action.Action;
 import io.github.drakonkinst.commonutil.FastMath;
 import io.github.drakonkinst.commonutil.MyLogger;
-import io.github.drakonkinst.contextualdialogue.context.ContextTable;
 import io.github.drakonkinst.contextualdialogue.exception.SpeechException;
 import io.github.drakonkinst.contextualdialogue.rule.Rule;
 import io.github.drakonkinst.contextualdialogue.token.TokenGroup;
 
 import java.io.Serializable;
-import java.util.Map;
 import java.util.logging.Level;
 
 /**
@@ -46,13 +44,13 @@ public class SpeechbankEntry implements Comparable<SpeechbankEntry>, Serializabl
         return null;
     }
 
-    public void performActions(Map<String, ContextTable> contexts) {
+    public void performActions(SpeechQuery query) {
         if(actions == null) {
             return;
         }
 
         for(Action action : actions) {
-            action.perform(contexts);
+            action.perform(query);
         }
     }
 
@@ -71,6 +69,10 @@ public class SpeechbankEntry implements Comparable<SpeechbankEntry>, Serializabl
         return speechLines;
     }
 
+    public Action[] getActions() {
+        return actions;
+    }
+
     public boolean isEmpty() {
         return empty;
     }
@@ -0,0 +1,106 @@
+package io.github.drakonkinst.contextualdialogue.speech.index;
+
+import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechbankEntry;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Narrows the entries of a speech category down to the candidates that a
+ * query could match, so that only their rules need to be checked.
+ * <p>
+ * Candidates are returned as a bitset over the positions of the entries in
+ * the category, so they can be visited in the same order as the entries
+ * themselves and the priority order of the category is preserved. The index
+ * may return entries that do not match, but never leaves out one that does.
+ * <p>
+ * Each index narrows the entries on its own, and an entry is only a
+ * candidate if every index returns it.
+ */
+public final class CategoryIndex implements Serializable {
+    public static CategoryIndex build(final SpeechbankEntry[] entries) {
+        return new CategoryIndex(entries.length, PresenceTree.build(entries), EqualityIndex.build(entries),
+                RangeIndex.build(entries), KeyPresenceFilter.build(entries));
+    }
+
+    // Returns the position of the first candidate at or after the given position, or -1 if there are none left
+    public static int nextCandidate(final long[] candidates, final int from) {
+        int wordIndex = from >>> 6;
+        if(wordIndex >= candidates.length) {
+            return -1;
+        }
+        long word = candidates[wordIndex] & (-1L << from);
+        while(word == 0L) {
+            if(++wordIndex >= candidates.length) {
+                return -1;
+            }
+            word = candidates[wordIndex];
+        }
+        return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    // Returns a bitset with every entry as a candidate, for when the index is not used
+    public static long[] allCandidates(final int numEntries) {
+        final long[] candidates = new long[(numEntries + 63) >>> 6];
+        Arrays.fill(candidates, -1L);
+        if((numEntries & 63) != 0) {
+            candidates[candidates.length - 1] = -1L >>> (64 - (numEntries & 63));
+        }
+        return candidates;
+    }
+
+    public static int countCandidates(final long[] candidates) {
+        int count = 0;
+        for(long word : candidates) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private final int numEntries;
+    private final PresenceTree presenceTree;
+    private final EqualityIndex equalityIndex;
+    private final RangeIndex rangeIndex;
+    private final KeyPresenceFilter presenceFilter;
+
+    private CategoryIndex(final int numEntries,
+                          final PresenceTree presenceTree,
+                          final EqualityIndex equalityIndex,
+                          final RangeIndex rangeIndex,
+                          final KeyPresenceFilter presenceFilter) {
+        this.numEntries = numEntries;
+        this.presenceTree = presenceTree;
+        this.equalityIndex = equalityIndex;
+        this.rangeIndex = rangeIndex;
+        this.presenceFilter = presenceFilter;
+    }
+
+    public long[] findCandidates(final SpeechQuery query) {
+        final int numWords = (numEntries + 63) >>> 6;
+        final long[] candidates = new long[numWords];
+        presenceTree.findCandidates(query, candidates);
+        final long[] filtered = new long[numWords];
+        equalityIndex.findCandidates(query, filtered);
+        intersect(candidates, filtered);
+        Arrays.fill(filtered, 0L);
+        rangeIndex.findCandidates(query, filtered);
+        intersect(candidates, filtered);
+        return candidates;
+    }
+
+    private static void intersect(final long[] candidates, final long[] filtered) {
+        for(int i = 0; i < candidates.length; ++i) {
+            candidates[i] &= filtered[i];
+        }
+    }
+
+    // Returns the per-entry key signatures, for scans that do not narrow the entries down first
+    public KeyPresenceFilter getPresenceFilter() {
+        return presenceFilter;
+    }
+
+    public int getNumEntries() {
+        return numEntries;
+    }
+}
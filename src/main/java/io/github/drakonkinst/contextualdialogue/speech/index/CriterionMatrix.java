@@ -0,0 +1,96 @@
+package io.github.drakonkinst.contextualdialogue.speech.index;
+
+import io.github.drakonkinst.contextualdialogue.rule.CriterionFail;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionTuple;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
+import io.github.drakonkinst.contextualdialogue.speech.Speechbank;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechbankEntry;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches every entry of a speech category at once.
+ * <p>
+ * Identical criteria are shared by many entries, so each distinct criterion
+ * in the category is given a column: a bitset over the positions of the
+ * entries that require it. A query evaluates each distinct criterion once,
+ * and a failed criterion clears its whole column from the matches with one
+ * AND per 64 entries. Fail chances are random, so they cannot be shared and
+ * are left for the caller to roll for each matched entry.
+ */
+public final class CriterionMatrix implements Serializable {
+    public static CriterionMatrix build(final SpeechbankEntry[] entries) {
+        final int numWords = (entries.length + 63) >>> 6;
+        final long[] base = new long[numWords];
+        final Map<CriterionTuple, long[]> columns = new HashMap<>();
+        for(int i = 0; i < entries.length; ++i) {
+            if(entries[i].isEmpty()) {
+                continue;
+            }
+            base[i >>> 6] |= 1L << i;
+            for(CriterionTuple tuple : entries[i].getRule().getCriteria()) {
+                if(tuple.getCriterion() instanceof CriterionFail) {
+                    continue;
+                }
+                columns.computeIfAbsent(tuple, k -> new long[numWords])[i >>> 6] |= 1L << i;
+            }
+        }
+
+        // Evaluate the most shared criteria first, since a failure there clears the most entries
+        final List<Map.Entry<CriterionTuple, long[]>> sorted = new ArrayList<>(columns.entrySet());
+        sorted.sort((a, b) -> CategoryIndex.countCandidates(b.getValue()) - CategoryIndex.countCandidates(a.getValue()));
+        final CriterionTuple[] criteria = new CriterionTuple[sorted.size()];
+        final long[][] requiredBy = new long[sorted.size()][];
+        for(int i = 0; i < criteria.length; ++i) {
+            criteria[i] = sorted.get(i).getKey();
+            requiredBy[i] = sorted.get(i).getValue();
+        }
+        return new CriterionMatrix(base, criteria, requiredBy);
+    }
+
+    private final long[] base;              // Every entry that can be selected
+    private final CriterionTuple[] criteria;
+    private final long[][] requiredBy;
+
+    private CriterionMatrix(final long[] base, final CriterionTuple[] criteria, final long[][] requiredBy) {
+        this.base = base;
+        this.criteria = criteria;
+        this.requiredBy = requiredBy;
+    }
+
+    // Returns a bitset of the entries whose criteria all pass, except for fail chances which are not rolled
+    public long[] findMatches(final SpeechQuery query) {
+        final long[] matches = base.clone();
+        for(int i = 0; i < criteria.length; ++i) {
+            final long[] column = requiredBy[i];
+            // Skip criteria whose entries have all been ruled out already
+            if(!intersects(matches, column)) {
+                continue;
+            }
+            if(!Speechbank.evaluateCriterion(criteria[i], query, true)) {
+                for(int j = 0; j < matches.length; ++j) {
+                    matches[j] &= ~column[j];
+                }
+            }
+        }
+        return matches;
+    }
+
+    // Returns the number of distinct criteria, which is how many evaluations a query can take at most
+    public int getNumCriteria() {
+        return criteria.length;
+    }
+
+    private static boolean intersects(final long[] a, final long[] b) {
+        for(int i = 0; i < a.length; ++i) {
+            if((a[i] & b[i]) != 0L) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
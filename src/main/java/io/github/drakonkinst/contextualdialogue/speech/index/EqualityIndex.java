@@ -0,0 +1,165 @@
+package io.github.drakonkinst.contextualdialogue.speech.index;
+
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
+import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.context.FactType;
+import io.github.drakonkinst.contextualdialogue.rule.Criterion;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionAlternate;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionExact;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionTuple;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechbankEntry;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An inverted index from a key and an exact value to the entries that
+ * require the key to have that value.
+ * <p>
+ * Strings and booleans are compared as exact ids by CriterionExact and
+ * CriterionAlternate, so every entry with such a criterion can be filed
+ * under the values it accepts. Each entry is filed under a single key, the
+ * one expected to split the category most finely, and entries without an
+ * equality criterion are kept in a residual list. A query then looks up one
+ * bucket per indexed key using its own facts.
+ */
+final class EqualityIndex implements Serializable {
+    // Floats represent every int below this exactly, so a number fact matches at most one id
+    private static final float MAX_EXACT_FLOAT = 1 << 24;
+
+    private static final class KeyBuckets implements Serializable {
+        private final ContextKey key;
+        private final Int2ObjectOpenHashMap<int[]> buckets = new Int2ObjectOpenHashMap<>();
+        private final int[] entries;    // Every entry filed under this key
+
+        private KeyBuckets(final ContextKey key, final Map<Integer, IntArrayList> buckets, final int[] entries) {
+            this.key = key;
+            for(Map.Entry<Integer, IntArrayList> bucket : buckets.entrySet()) {
+                this.buckets.put(bucket.getKey().intValue(), bucket.getValue().toIntArray());
+            }
+            this.entries = entries;
+        }
+    }
+
+    // An equality criterion of an entry, with the values it accepts
+    private record Equality(ContextKey key, int[] values) {}
+
+    static EqualityIndex build(final SpeechbankEntry[] entries) {
+        // Count the distinct values each key is compared against, which is how finely it splits the category
+        final List<List<Equality>> equalities = new ArrayList<>(entries.length);
+        final Map<ContextKey, IntSet> distinctValues = new HashMap<>();
+        for(SpeechbankEntry entry : entries) {
+            final List<Equality> entryEqualities = getEqualities(entry);
+            equalities.add(entryEqualities);
+            for(Equality equality : entryEqualities) {
+                final IntSet values = distinctValues.computeIfAbsent(equality.key(), k -> new IntOpenHashSet());
+                for(int value : equality.values()) {
+                    values.add(value);
+                }
+            }
+        }
+
+        final Map<ContextKey, Map<Integer, IntArrayList>> buckets = new LinkedHashMap<>();
+        final Map<ContextKey, IntArrayList> filed = new HashMap<>();
+        final IntArrayList residual = new IntArrayList();
+        for(int i = 0; i < entries.length; ++i) {
+            if(entries[i].isEmpty()) {
+                continue;
+            }
+            Equality best = null;
+            float bestScore = 0.0f;
+            for(Equality equality : equalities.get(i)) {
+                final float score = (float) distinctValues.get(equality.key()).size() / equality.values().length;
+                if(score > bestScore) {
+                    best = equality;
+                    bestScore = score;
+                }
+            }
+            if(best == null) {
+                residual.add(i);
+                continue;
+            }
+            final Map<Integer, IntArrayList> keyBuckets = buckets.computeIfAbsent(best.key(), k -> new HashMap<>());
+            for(int value : best.values()) {
+                keyBuckets.computeIfAbsent(value, k -> new IntArrayList()).add(i);
+            }
+            filed.computeIfAbsent(best.key(), k -> new IntArrayList()).add(i);
+        }
+
+        final KeyBuckets[] keyBuckets = new KeyBuckets[buckets.size()];
+        int index = 0;
+        for(Map.Entry<ContextKey, Map<Integer, IntArrayList>> entry : buckets.entrySet()) {
+            keyBuckets[index++] = new KeyBuckets(entry.getKey(), entry.getValue(), filed.get(entry.getKey()).toIntArray());
+        }
+        return new EqualityIndex(keyBuckets, residual.toIntArray());
+    }
+
+    private static List<Equality> getEqualities(final SpeechbankEntry entry) {
+        final List<Equality> equalities = new ArrayList<>();
+        for(CriterionTuple tuple : entry.getRule().getCriteria()) {
+            final Criterion criterion = tuple.getCriterion();
+            if(criterion instanceof CriterionExact criterionExact && !criterionExact.isInverted()) {
+                equalities.add(new Equality(tuple.getContextKey(), new int[] { criterionExact.getValue() }));
+            } else if(criterion instanceof CriterionAlternate criterionAlternate && !criterionAlternate.isInverted()
+                    && criterionAlternate.getOptions().length > 0) {
+                equalities.add(new Equality(tuple.getContextKey(), criterionAlternate.getOptions()));
+            }
+        }
+        return equalities;
+    }
+
+    private static void addAll(final int[] entries, final long[] candidates) {
+        for(int entry : entries) {
+            candidates[entry >>> 6] |= 1L << entry;
+        }
+    }
+
+    private final KeyBuckets[] keyBuckets;
+    private final int[] residual;
+
+    private EqualityIndex(final KeyBuckets[] keyBuckets, final int[] residual) {
+        this.keyBuckets = keyBuckets;
+        this.residual = residual;
+    }
+
+    // Sets the bit of every entry whose filed value matches the query, and of every residual entry
+    void findCandidates(final SpeechQuery query, final long[] candidates) {
+        addAll(residual, candidates);
+        for(KeyBuckets keyBucket : keyBuckets) {
+            final ContextTable table = query.getMatchingTable(keyBucket.key);
+            final int keyId = keyBucket.key.getKeyId();
+            final FactType type = table == null ? FactType.NULL : table.getType(keyId);
+            if(type == FactType.NULL) {
+                continue;
+            }
+            // Numbers are compared as floats, so only an integral number can equal an id
+            final int value;
+            if(type == FactType.NUMBER) {
+                final float number = table.get(keyId);
+                if(Math.abs(number) >= MAX_EXACT_FLOAT) {
+                    addAll(keyBucket.entries, candidates);
+                    continue;
+                }
+                if(number != (int) number) {
+                    continue;
+                }
+                value = (int) number;
+            } else {
+                value = table.getAsInt(keyId);
+            }
+            final int[] bucket = keyBucket.buckets.get(value);
+            if(bucket != null) {
+                addAll(bucket, candidates);
+            }
+        }
+    }
+}
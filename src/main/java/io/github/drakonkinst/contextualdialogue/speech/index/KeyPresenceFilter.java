@@ -0,0 +1,96 @@
+package io.github.drakonkinst.contextualdialogue.speech.index;
+
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechbankEntry;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A signature of the keys each entry of a speech category requires to be
+ * present, so that an entry reading a missing key is rejected with a single
+ * bitwise test before any of its criteria are evaluated.
+ * <p>
+ * The 64 keys required by the most entries in the category are each given a
+ * bit, and each entry's signature has the bits of the keys it requires. A
+ * query fills in a matching mask of the keys that are present, probing each
+ * key the first time a signature needs it. Keys without a bit are left for
+ * the criteria to check, so the filter never rejects an entry that matches.
+ */
+public final class KeyPresenceFilter implements Serializable {
+    private static final int MAX_KEYS = Long.SIZE;
+
+    public static KeyPresenceFilter build(final SpeechbankEntry[] entries) {
+        final List<Map<ContextKey, Boolean>> requirements = new ArrayList<>(entries.length);
+        final Map<ContextKey, Integer> numRequiredBy = new HashMap<>();
+        for(SpeechbankEntry entry : entries) {
+            final Map<ContextKey, Boolean> required = entry.isEmpty() ? null : PresenceTree.getRequiredKeys(entry.getRule());
+            requirements.add(required);
+            if(required == null) {
+                continue;
+            }
+            for(Map.Entry<ContextKey, Boolean> key : required.entrySet()) {
+                if(key.getValue()) {
+                    numRequiredBy.merge(key.getKey(), 1, Integer::sum);
+                }
+            }
+        }
+
+        // Give bits to the keys that can reject the most entries
+        final List<ContextKey> sorted = new ArrayList<>(numRequiredBy.keySet());
+        sorted.sort((a, b) -> numRequiredBy.get(b) - numRequiredBy.get(a));
+        final ContextKey[] keys = sorted.subList(0, Math.min(MAX_KEYS, sorted.size())).toArray(new ContextKey[0]);
+        final Map<ContextKey, Integer> bits = new HashMap<>();
+        for(int i = 0; i < keys.length; ++i) {
+            bits.put(keys[i], i);
+        }
+
+        final long[] signatures = new long[entries.length];
+        for(int i = 0; i < entries.length; ++i) {
+            final Map<ContextKey, Boolean> required = requirements.get(i);
+            if(required == null) {
+                continue;
+            }
+            for(Map.Entry<ContextKey, Boolean> key : required.entrySet()) {
+                final Integer bit = bits.get(key.getKey());
+                if(bit != null && key.getValue()) {
+                    signatures[i] |= 1L << bit;
+                }
+            }
+        }
+        return new KeyPresenceFilter(keys, signatures);
+    }
+
+    private final ContextKey[] keys;
+    private final long[] signatures;
+
+    private KeyPresenceFilter(final ContextKey[] keys, final long[] signatures) {
+        this.keys = keys;
+        this.signatures = signatures;
+    }
+
+    // Returns the bits of the keys the entry at the given position requires to be present
+    public long getSignature(final int entry) {
+        return signatures[entry];
+    }
+
+    // Returns which of the given bits have their key present in the query
+    public long probe(final SpeechQuery query, final long bits) {
+        long present = 0L;
+        for(long remaining = bits; remaining != 0L; remaining &= remaining - 1) {
+            final int bit = Long.numberOfTrailingZeros(remaining);
+            if(PresenceTree.isPresent(keys[bit], query)) {
+                present |= 1L << bit;
+            }
+        }
+        return present;
+    }
+
+    public int getNumKeys() {
+        return keys.length;
+    }
+}
@@ -0,0 +1,238 @@
+package io.github.drakonkinst.contextualdialogue.speech.index;
+
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
+import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.rule.Criterion;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionDynamic;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionExist;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionFail;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionTuple;
+import io.github.drakonkinst.contextualdialogue.rule.Rule;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechbankEntry;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A decision tree over which context keys are present in a query.
+ * <p>
+ * Every criterion except fail chances fails when a key it reads is missing,
+ * and existence criteria can also require a key to be missing, so each rule
+ * requires a set of keys to be present or absent. The tree branches on the
+ * key required by the most entries that are left, and an entry that does not
+ * mention that key is copied into both branches. A query follows a single
+ * path, so it only tests the keys along that path. Keys that are not shared
+ * widely enough to branch on are tested at the leaf instead, where every key
+ * the leaf's entries read has a bitset of the entries it rules out.
+ * <p>
+ * A branch is only made if both children are clearly smaller than their
+ * parent, which limits how many entries they copy between them, and the
+ * leaves may only hold a fixed multiple of the category's entries in total.
+ * If the root cannot branch, the tree is a single leaf, which is just the
+ * bitsets.
+ */
+final class PresenceTree implements Serializable {
+    private static final int MAX_LEAF_SIZE = 8;
+    private static final int MAX_DEPTH = 16;
+    // Only branch on a key that at least a quarter of the entries require, so copied entries do not blow up the tree
+    private static final int MIN_SPLIT_DIVISOR = 4;
+    // Each child of a branch must hold at most 3/4 of its parent's entries, so the two hold at most 3/2 together
+    private static final int MAX_CHILD_QUARTERS = 3;
+    // Leaves may hold at most this many times as many entries as the category, counting copies
+    private static final int MAX_DUPLICATION = 4;
+
+    private static final class Node implements Serializable {
+        private final ContextKey key;   // Null for leaves
+        private final Node present;
+        private final Node absent;
+        private final Leaf leaf;
+
+        private Node(final ContextKey key, final Node present, final Node absent, final Leaf leaf) {
+            this.key = key;
+            this.present = present;
+            this.absent = absent;
+            this.leaf = leaf;
+        }
+    }
+
+    // Entries that reach the same leaf, filtered by the keys that the path to the leaf did not test
+    private static final class Leaf implements Serializable {
+        private final int[] entries;    // Positions of the entries in the category, in ascending order
+        private final ContextKey[] keys;
+        // For each key, bitsets over the entries of this leaf that fail if the key is present or absent
+        private final long[][] failIfPresent;
+        private final long[][] failIfAbsent;
+
+        private Leaf(final int[] entries,
+                     final List<Map<ContextKey, Boolean>> requirements,
+                     final Set<ContextKey> decided) {
+            this.entries = entries;
+            final int numWords = (entries.length + 63) >>> 6;
+            final Map<ContextKey, long[][]> filters = new LinkedHashMap<>();
+            for(int i = 0; i < entries.length; ++i) {
+                for(Map.Entry<ContextKey, Boolean> required : requirements.get(entries[i]).entrySet()) {
+                    if(decided.contains(required.getKey())) {
+                        continue;
+                    }
+                    final long[][] filter = filters.computeIfAbsent(required.getKey(), k -> new long[2][numWords]);
+                    filter[required.getValue() ? 1 : 0][i >>> 6] |= 1L << i;
+                }
+            }
+            this.keys = filters.keySet().toArray(new ContextKey[0]);
+            this.failIfPresent = new long[keys.length][];
+            this.failIfAbsent = new long[keys.length][];
+            for(int i = 0; i < keys.length; ++i) {
+                final long[][] filter = filters.get(keys[i]);
+                failIfPresent[i] = filter[0];
+                failIfAbsent[i] = filter[1];
+            }
+        }
+
+        private void findCandidates(final SpeechQuery query, final long[] candidates) {
+            final long[] local = new long[(entries.length + 63) >>> 6];
+            Arrays.fill(local, -1L);
+            for(int i = 0; i < keys.length; ++i) {
+                final long[] fail = isPresent(keys[i], query) ? failIfPresent[i] : failIfAbsent[i];
+                for(int j = 0; j < local.length; ++j) {
+                    local[j] &= ~fail[j];
+                }
+            }
+            for(int i = CategoryIndex.nextCandidate(local, 0); i >= 0 && i < entries.length; i = CategoryIndex.nextCandidate(local, i + 1)) {
+                candidates[entries[i] >>> 6] |= 1L << entries[i];
+            }
+        }
+    }
+
+    static PresenceTree build(final SpeechbankEntry[] entries) {
+        final List<Map<ContextKey, Boolean>> requirements = new ArrayList<>(entries.length);
+        final IntArrayList members = new IntArrayList(entries.length);
+        for(int i = 0; i < entries.length; ++i) {
+            final Map<ContextKey, Boolean> required = getRequiredKeys(entries[i].getRule());
+            requirements.add(required);
+            // Entries that require a key to be both present and absent can never match
+            if(!entries[i].isEmpty() && required != null) {
+                members.add(i);
+            }
+        }
+        final int[] copyBudget = { members.size() * (MAX_DUPLICATION - 1) };
+        return new PresenceTree(build(members.toIntArray(), requirements, new HashSet<>(), 0, copyBudget));
+    }
+
+    // Returns true if a criterion reading the key could pass, since the key is in the table it resolves to
+    static boolean isPresent(final ContextKey key, final SpeechQuery query) {
+        final ContextTable table = query.getMatchingTable(key);
+        return table != null && table.contains(key.getKeyId());
+    }
+
+    // Maps each key the rule reads to whether it must be present, or returns null if the requirements contradict
+    static Map<ContextKey, Boolean> getRequiredKeys(final Rule rule) {
+        final Map<ContextKey, Boolean> required = new HashMap<>();
+        for(CriterionTuple tuple : rule.getCriteria()) {
+            final Criterion criterion = tuple.getCriterion();
+            if(criterion instanceof CriterionFail) {
+                continue;
+            }
+            boolean consistent;
+            if(criterion instanceof CriterionExist criterionExist) {
+                consistent = require(required, tuple.getContextKey(), !criterionExist.isInverted());
+            } else {
+                consistent = require(required, tuple.getContextKey(), true);
+                if(criterion instanceof CriterionDynamic criterionDynamic) {
+                    consistent &= require(required, criterionDynamic.getOther(), true);
+                }
+            }
+            if(!consistent) {
+                return null;
+            }
+        }
+        return required;
+    }
+
+    private static boolean require(final Map<ContextKey, Boolean> required, final ContextKey key, final boolean present) {
+        final Boolean prev = required.putIfAbsent(key, present);
+        return prev == null || prev == present;
+    }
+
+    private static Node build(final int[] members,
+                              final List<Map<ContextKey, Boolean>> requirements,
+                              final Set<ContextKey> decided,
+                              final int depth,
+                              final int[] copyBudget) {
+        if(members.length <= MAX_LEAF_SIZE || depth >= MAX_DEPTH) {
+            return new Node(null, null, null, new Leaf(members, requirements, decided));
+        }
+
+        // Branch on the undecided key that the most entries require
+        final Map<ContextKey, Integer> counts = new HashMap<>();
+        for(int member : members) {
+            for(ContextKey key : requirements.get(member).keySet()) {
+                if(!decided.contains(key)) {
+                    counts.merge(key, 1, Integer::sum);
+                }
+            }
+        }
+        ContextKey best = null;
+        int bestCount = 0;
+        for(Map.Entry<ContextKey, Integer> entry : counts.entrySet()) {
+            if(entry.getValue() > bestCount) {
+                best = entry.getKey();
+                bestCount = entry.getValue();
+            }
+        }
+        if(best == null || bestCount * MIN_SPLIT_DIVISOR < members.length) {
+            return new Node(null, null, null, new Leaf(members, requirements, decided));
+        }
+
+        final IntArrayList present = new IntArrayList();
+        final IntArrayList absent = new IntArrayList();
+        for(int member : members) {
+            final Boolean required = requirements.get(member).get(best);
+            if(required != Boolean.FALSE) {
+                present.add(member);
+            }
+            if(required != Boolean.TRUE) {
+                absent.add(member);
+            }
+        }
+        // Copied entries are tested again in both children, so a branch that barely divides them is worse than a leaf
+        final int copies = present.size() + absent.size() - members.length;
+        if(present.size() * 4 > members.length * MAX_CHILD_QUARTERS
+                || absent.size() * 4 > members.length * MAX_CHILD_QUARTERS
+                || copies > copyBudget[0]) {
+            return new Node(null, null, null, new Leaf(members, requirements, decided));
+        }
+        copyBudget[0] -= copies;
+
+        decided.add(best);
+        final Node node = new Node(best,
+                build(present.toIntArray(), requirements, decided, depth + 1, copyBudget),
+                build(absent.toIntArray(), requirements, decided, depth + 1, copyBudget),
+                null);
+        decided.remove(best);
+        return node;
+    }
+
+    private final Node root;
+
+    private PresenceTree(final Node root) {
+        this.root = root;
+    }
+
+    // Sets the bit of every entry whose required keys are present or absent as the query has them
+    void findCandidates(final SpeechQuery query, final long[] candidates) {
+        Node node = root;
+        while(node.key != null) {
+            node = isPresent(node.key, query) ? node.present : node.absent;
+        }
+        node.leaf.findCandidates(query, candidates);
+    }
+}
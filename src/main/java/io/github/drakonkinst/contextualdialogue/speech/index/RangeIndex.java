@@ -0,0 +1,240 @@
+package io.github.drakonkinst.contextualdialogue.speech.index;
+
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
+import io.github.drakonkinst.contextualdialogue.context.ContextTable;
+import io.github.drakonkinst.contextualdialogue.context.FactType;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionStatic;
+import io.github.drakonkinst.contextualdialogue.rule.CriterionTuple;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
+import io.github.drakonkinst.contextualdialogue.speech.SpeechbankEntry;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An interval tree per key over the numeric ranges that entries require.
+ * <p>
+ * Ranges come from non-inverted CriterionStatic criteria, including equals,
+ * which passes within EPSILON of its value. Like the equality index, each
+ * entry is filed under a single range, the narrowest one relative to the
+ * other ranges on its key, and entries without a range are kept in a
+ * residual list, while entries with an empty range are left out since they
+ * can never match. A query stabs each tree with its own fact and gets back the
+ * entries whose range contains it in O(log n + k).
+ */
+final class RangeIndex implements Serializable {
+    // Centered interval tree over the ranges filed under one key
+    private static final class IntervalNode implements Serializable {
+        private final double center;
+        private final IntervalNode left;    // Ranges entirely below the center
+        private final IntervalNode right;   // Ranges entirely above the center
+        // Ranges containing the center, sorted by ascending lower bound and by descending upper bound
+        private final double[] lowerBounds;
+        private final int[] byLowerBound;
+        private final double[] upperBounds;
+        private final int[] byUpperBound;
+
+        private IntervalNode(final double center,
+                             final IntervalNode left,
+                             final IntervalNode right,
+                             final List<Range> overlapping) {
+            this.center = center;
+            this.left = left;
+            this.right = right;
+
+            final int size = overlapping.size();
+            final Range[] sorted = overlapping.toArray(new Range[0]);
+            Arrays.sort(sorted, (a, b) -> Double.compare(a.lower(), b.lower()));
+            this.lowerBounds = new double[size];
+            this.byLowerBound = new int[size];
+            for(int i = 0; i < size; ++i) {
+                lowerBounds[i] = sorted[i].lower();
+                byLowerBound[i] = sorted[i].entry();
+            }
+            Arrays.sort(sorted, (a, b) -> Double.compare(b.upper(), a.upper()));
+            this.upperBounds = new double[size];
+            this.byUpperBound = new int[size];
+            for(int i = 0; i < size; ++i) {
+                upperBounds[i] = sorted[i].upper();
+                byUpperBound[i] = sorted[i].entry();
+            }
+        }
+
+        private static IntervalNode build(final List<Range> ranges) {
+            if(ranges.isEmpty()) {
+                return null;
+            }
+
+            // Split at the median endpoint, so each side holds at most half of the ranges
+            final double[] endpoints = new double[ranges.size() * 2];
+            for(int i = 0; i < ranges.size(); ++i) {
+                endpoints[2 * i] = ranges.get(i).lower();
+                endpoints[2 * i + 1] = ranges.get(i).upper();
+            }
+            Arrays.sort(endpoints);
+            final double center = endpoints[ranges.size()];
+
+            final List<Range> below = new ArrayList<>();
+            final List<Range> above = new ArrayList<>();
+            final List<Range> overlapping = new ArrayList<>();
+            for(Range range : ranges) {
+                if(range.upper() < center) {
+                    below.add(range);
+                } else if(range.lower() > center) {
+                    above.add(range);
+                } else {
+                    overlapping.add(range);
+                }
+            }
+            return new IntervalNode(center, build(below), build(above), overlapping);
+        }
+
+        private void stab(final double value, final long[] candidates) {
+            IntervalNode node = this;
+            while(node != null) {
+                if(value < node.center) {
+                    for(int i = 0; i < node.lowerBounds.length && node.lowerBounds[i] <= value; ++i) {
+                        set(node.byLowerBound[i], candidates);
+                    }
+                    node = node.left;
+                } else {
+                    for(int i = 0; i < node.upperBounds.length && node.upperBounds[i] >= value; ++i) {
+                        set(node.byUpperBound[i], candidates);
+                    }
+                    node = node.right;
+                }
+            }
+        }
+    }
+
+    // A range that an entry requires its key to be in, widened to cover float rounding in CriterionStatic.compare()
+    private record Range(ContextKey key, double lower, double upper, int entry) {
+        private static Range of(final ContextKey key, final CriterionStatic criterion, final int entry) {
+            final float minValue = criterion.getMinValue();
+            final float maxValue = criterion.getMaxValue();
+            final double lower = (double) minValue - CriterionStatic.EPSILON - 2 * Math.ulp(Math.abs(minValue) + CriterionStatic.EPSILON);
+            final double upper = (double) maxValue + CriterionStatic.EPSILON + 2 * Math.ulp(Math.abs(maxValue) + CriterionStatic.EPSILON);
+            return new Range(key, lower, upper, entry);
+        }
+
+        private double width() {
+            return upper - lower;
+        }
+    }
+
+    static RangeIndex build(final SpeechbankEntry[] entries) {
+        final List<List<Range>> ranges = new ArrayList<>(entries.length);
+        final Map<ContextKey, double[]> spans = new HashMap<>();
+        for(int i = 0; i < entries.length; ++i) {
+            final List<Range> entryRanges = getRanges(entries[i], i);
+            ranges.add(entryRanges);
+            for(Range range : entryRanges) {
+                final double[] span = spans.computeIfAbsent(range.key(), k -> new double[] { Double.MAX_VALUE, -Double.MAX_VALUE });
+                // Open-ended ranges would stretch the span to the limits of a float, so only finite bounds count
+                if(range.lower() > -Float.MAX_VALUE) {
+                    span[0] = Math.min(span[0], range.lower());
+                    span[1] = Math.max(span[1], range.lower());
+                }
+                if(range.upper() < Float.MAX_VALUE) {
+                    span[0] = Math.min(span[0], range.upper());
+                    span[1] = Math.max(span[1], range.upper());
+                }
+            }
+        }
+
+        final Map<ContextKey, List<Range>> filed = new LinkedHashMap<>();
+        final IntArrayList residual = new IntArrayList();
+        for(int i = 0; i < entries.length; ++i) {
+            if(entries[i].isEmpty()) {
+                continue;
+            }
+            // File the entry under the range that covers the least of its key's span
+            Range best = null;
+            double bestCoverage = Double.MAX_VALUE;
+            boolean satisfiable = true;
+            for(Range range : ranges.get(i)) {
+                if(range.lower() > range.upper()) {
+                    satisfiable = false;
+                    break;
+                }
+                final double[] span = spans.get(range.key());
+                final double clipped = Math.min(range.upper(), span[1]) - Math.max(range.lower(), span[0]);
+                final double coverage = Math.max(0.0, clipped) / Math.max(span[1] - span[0], range.width());
+                if(coverage < bestCoverage) {
+                    best = range;
+                    bestCoverage = coverage;
+                }
+            }
+            // Entries with an empty range can never match, so they are left out entirely
+            if(!satisfiable) {
+                continue;
+            }
+            if(best == null) {
+                residual.add(i);
+            } else {
+                filed.computeIfAbsent(best.key(), k -> new ArrayList<>()).add(best);
+            }
+        }
+
+        final ContextKey[] keys = new ContextKey[filed.size()];
+        final IntervalNode[] trees = new IntervalNode[filed.size()];
+        int index = 0;
+        for(Map.Entry<ContextKey, List<Range>> entry : filed.entrySet()) {
+            keys[index] = entry.getKey();
+            trees[index] = IntervalNode.build(entry.getValue());
+            ++index;
+        }
+        return new RangeIndex(keys, trees, residual.toIntArray());
+    }
+
+    private static List<Range> getRanges(final SpeechbankEntry entry, final int position) {
+        final List<Range> ranges = new ArrayList<>();
+        for(CriterionTuple tuple : entry.getRule().getCriteria()) {
+            if(tuple.getCriterion() instanceof CriterionStatic criterionStatic && !criterionStatic.isInverted()
+                    && !criterionStatic.isExact()) {
+                ranges.add(Range.of(tuple.getContextKey(), criterionStatic, position));
+            }
+        }
+        return ranges;
+    }
+
+    private static void set(final int entry, final long[] candidates) {
+        candidates[entry >>> 6] |= 1L << entry;
+    }
+
+    private final ContextKey[] keys;
+    private final IntervalNode[] trees;
+    private final int[] residual;
+
+    private RangeIndex(final ContextKey[] keys, final IntervalNode[] trees, final int[] residual) {
+        this.keys = keys;
+        this.trees = trees;
+        this.residual = residual;
+    }
+
+    // Sets the bit of every entry whose filed range contains the query's value, and of every residual entry
+    void findCandidates(final SpeechQuery query, final long[] candidates) {
+        for(int entry : residual) {
+            set(entry, candidates);
+        }
+        for(int i = 0; i < keys.length; ++i) {
+            final ContextTable table = query.getMatchingTable(keys[i]);
+            final int keyId = keys[i].getKeyId();
+            final FactType type = table == null ? FactType.NULL : table.getType(keyId);
+            if(type == FactType.NULL) {
+                continue;
+            }
+            // Strings and booleans are compared by their id as a float, as in FloatCriterion.compareExact()
+            final float value = type == FactType.NUMBER ? table.get(keyId) : (float) table.getAsInt(keyId);
+            if(!Float.isNaN(value)) {
+                trees[i].stab(value, candidates);
+            }
+        }
+    }
+}
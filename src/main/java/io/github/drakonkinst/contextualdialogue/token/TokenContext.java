@@ -1,42 +1,45 @@
 package io.github.drakonkinst.contextualdialogue.token;
 
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
 import io.github.drakonkinst.contextualdialogue.context.FactType;
 import io.github.drakonkinst.contextualdialogue.exception.SpeechException;
 import io.github.drakonkinst.contextualdialogue.speech.SpeechQuery;
 import io.github.drakonkinst.contextualdialogue.util.NumericalSpeech;
 
 public class TokenContext implements Token {
-    private final String table;
-    private final String key;
+    private final ContextKey contextKey;
     
     public TokenContext(String table, String key) {
-        this.table = table;
-        this.key = key;
+        this.contextKey = new ContextKey(table, key);
     }
     
     public String getTable() {
-        return table;
+        return contextKey.getTable();
     }
     
     public String getKey() {
-        return key;
+        return contextKey.getKey();
+    }
+
+    public ContextKey getContextKey() {
+        return contextKey;
     }
 
     @Override
     public String evaluate(SpeechQuery query) throws SpeechException {
-        FactType type = query.getContextType(table, key);
+        FactType type = query.getContextType(contextKey);
 
         if(type == FactType.STRING) {
-            return query.getContextAsString(table, key);
+            return query.getContextAsString(contextKey);
         }
 
         if(type == FactType.NUMBER) {
-            int value = (int) query.getContextAsFloat(table, key);
+            int value = (int) query.getContextAsFloat(contextKey);
             return NumericalSpeech.integerToWord(value);
         }
 
         if(type == FactType.NULL) {
-            throw new SpeechException("Context " + table + "." + key + " does not exist in this query");
+            throw new SpeechException("Context " + getTable() + "." + getKey() + " does not exist in this query");
         }
 
         throw new SpeechException("Context of type " + type.name() + " should not be evaluated");
@@ -44,6 +47,6 @@ public class TokenContext implements Token {
     
     @Override
     public String toString() {
-        return "{Context " + table + " . " + key + "}";
+        return "{Context " + getTable() + " . " + getKey() + "}";
     }
 }
@@ -1,5 +1,6 @@
 package io.github.drakonkinst.contextualdialogue.token;
 
+import io.github.drakonkinst.contextualdialogue.context.ContextKey;
 import io.github.drakonkinst.contextualdialogue.context.FactType;
 import io.github.drakonkinst.contextualdialogue.exception.SpeechException;
 import io.github.drakonkinst.contextualdialogue.function.FunctionSig;
@@ -129,7 +130,7 @@ public class TokenFunction implements Token {
                 }
             }
             if (token instanceof TokenContext context) {
-                return new IntArrayList(query.getContextAsList(context.getTable(), context.getKey()));
+                return new IntArrayList(query.getContextAsList(context.getContextKey()));
             }
             if (token instanceof TokenList list) {
                 IntList tokenList = new IntArrayList();
@@ -137,7 +138,7 @@ public class TokenFunction implements Token {
                 for(Token t : tokens) {
                     Object item = handleArg(t, TokenTypes.LIST_ITEM, query);
                     if(item instanceof String str) {
-                        tokenList.add(StringCache.cacheString(str));
+                        tokenList.add(query.getStringCache().cacheString(str));
                     } else if(item instanceof Integer integer) {
                         tokenList.add(integer.intValue());
                     } else {
@@ -154,7 +155,7 @@ public class TokenFunction implements Token {
                 }
             }
             if (token instanceof TokenContext context) {
-                return (int) query.getContextAsFloat(context.getTable(), context.getKey());
+                return (int) query.getContextAsFloat(context.getContextKey());
             }
             if(token instanceof TokenInt integer) {
                 return integer.getValue();
@@ -167,7 +168,7 @@ public class TokenFunction implements Token {
                 }
             }
             if (token instanceof TokenContext context) {
-                return query.getContextAsFloat(context.getTable(), context.getKey());
+                return query.getContextAsFloat(context.getContextKey());
             }
             if (token instanceof TokenInt integer) {
                 return (float) integer.getValue();
@@ -183,7 +184,7 @@ public class TokenFunction implements Token {
                 }
             }
             if (token instanceof TokenContext context) {
-                return query.getContextAsBoolean(context.getTable(), context.getKey());
+                return query.getContextAsBoolean(context.getContextKey());
             }
             if (token instanceof TokenBoolean bool) {
                 return bool.getValue();
@@ -196,14 +197,13 @@ public class TokenFunction implements Token {
                 }
             }
             if(token instanceof TokenContext context) {
-                String table = context.getTable();
-                String key = context.getKey();
-                FactType factType = query.getContextType(table, key);
+                ContextKey contextKey = context.getContextKey();
+                FactType factType = query.getContextType(contextKey);
                 if(factType == FactType.STRING) {
-                    return query.getContextAsString(table, key);
+                    return query.getContextAsString(contextKey);
                 }
                 if(factType == FactType.NUMBER) {
-                    return (int) query.getContextAsFloat(table, key);
+                    return (int) query.getContextAsFloat(contextKey);
                 }
             }
             if(token instanceof TokenInt integer) {
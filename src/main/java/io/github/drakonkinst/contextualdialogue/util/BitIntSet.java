@@ -0,0 +1,246 @@
+package io.github.drakonkinst.contextualdialogue.util;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntSet;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of ints stored as a dense bitset, for large lists of cached strings.
+ * The range starts at the first value added and grows in either direction as
+ * needed, but only while the bitset stays dense: it may span at most one word
+ * per value. Values that would stretch it further are kept in a hash set
+ * instead, so adding a far-off value never allocates more than the set holds.
+ */
+public class BitIntSet extends AbstractIntSet implements Serializable {
+    // Any set may span this many words, so small sets can grow without falling back to the hash set
+    private static final int MIN_WORDS = 4;
+    private static final long[] EMPTY = new long[0];
+
+    private long[] words;
+    private int baseWord;   // Index of the first word, where word i holds the values [64 * i, 64 * i + 63]
+    private int size;       // Including the values in sparse
+    private IntOpenHashSet sparse = null;   // Values outside the range of the words, created when first needed
+
+    public BitIntSet() {
+        this.words = EMPTY;
+        this.baseWord = 0;
+        this.size = 0;
+    }
+
+    // Creates an empty set whose range already covers the values from first to last, which should be dense
+    public BitIntSet(final int first, final int last) {
+        if(first > last) {
+            throw new IllegalArgumentException("Error: Range of BitIntSet is empty!");
+        }
+        this.words = new long[(last >> 6) - (first >> 6) + 1];
+        this.baseWord = first >> 6;
+        this.size = 0;
+    }
+
+    @Override
+    public boolean contains(final int k) {
+        final int word = (k >> 6) - baseWord;
+        if(word >= 0 && word < words.length) {
+            return (words[word] & (1L << k)) != 0;
+        }
+        return sparse != null && sparse.contains(k);
+    }
+
+    /**
+     * Returns true if this set shares any value with another bitset,
+     * by intersecting the words where their ranges overlap.
+     *
+     * @param other The bitset to check.
+     * @return True if any value is in both sets.
+     */
+    public boolean intersects(final BitIntSet other) {
+        final int start = Math.max(baseWord, other.baseWord);
+        final int end = Math.min(baseWord + words.length, other.baseWord + other.words.length);
+        for(int word = start; word < end; ++word) {
+            if((words[word - baseWord] & other.words[word - other.baseWord]) != 0) {
+                return true;
+            }
+        }
+        return containsAnySparse(other) || other.containsAnySparse(this);
+    }
+
+    private boolean containsAnySparse(final BitIntSet other) {
+        if(sparse == null) {
+            return false;
+        }
+        final IntIterator iter = sparse.iterator();
+        while(iter.hasNext()) {
+            if(other.contains(iter.nextInt())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean add(final int k) {
+        final int word = ensureWord(k >> 6);
+        if(word < 0) {
+            if(sparse == null) {
+                sparse = new IntOpenHashSet();
+            }
+            if(!sparse.add(k)) {
+                return false;
+            }
+            ++size;
+            return true;
+        }
+        final long bit = 1L << k;
+        if((words[word] & bit) != 0) {
+            return false;
+        }
+        words[word] |= bit;
+        ++size;
+        return true;
+    }
+
+    @Override
+    public boolean remove(final int k) {
+        final int word = (k >> 6) - baseWord;
+        if(word < 0 || word >= words.length) {
+            if(sparse == null || !sparse.remove(k)) {
+                return false;
+            }
+            --size;
+            return true;
+        }
+        final long bit = 1L << k;
+        if((words[word] & bit) == 0) {
+            return false;
+        }
+        words[word] &= ~bit;
+        --size;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(words, 0L);
+        sparse = null;
+        size = 0;
+    }
+
+    @Override
+    public IntIterator iterator() {
+        return new IntIterator() {
+            private int word = 0;
+            private long remaining = words.length > 0 ? words[0] : 0L;
+            private int last;
+            private boolean canRemove = false;
+            // Visits the values in sparse once every word has been visited
+            private IntIterator sparseIter = null;
+
+            @Override
+            public boolean hasNext() {
+                if(sparseIter != null) {
+                    return sparseIter.hasNext();
+                }
+                while(remaining == 0L) {
+                    if(++word >= words.length) {
+                        if(sparse == null) {
+                            return false;
+                        }
+                        sparseIter = sparse.iterator();
+                        return sparseIter.hasNext();
+                    }
+                    remaining = words[word];
+                }
+                return true;
+            }
+
+            @Override
+            public int nextInt() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if(sparseIter != null) {
+                    last = sparseIter.nextInt();
+                    canRemove = true;
+                    return last;
+                }
+                final int bit = Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+                last = ((word + baseWord) << 6) + bit;
+                canRemove = true;
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if(!canRemove) {
+                    throw new IllegalStateException();
+                }
+                if(sparseIter != null) {
+                    sparseIter.remove();
+                    --size;
+                } else {
+                    BitIntSet.this.remove(last);
+                }
+                canRemove = false;
+            }
+        };
+    }
+
+    // Returns the index of the word in the array, growing the range to include it if needed, or -1 if that would
+    // make the bitset too sparse
+    private int ensureWord(final int absoluteWord) {
+        if(words.length == 0) {
+            baseWord = absoluteWord;
+        }
+        final int maxWords = Math.max(size + 1, MIN_WORDS);
+        if(absoluteWord < baseWord) {
+            final int shift = baseWord - absoluteWord;
+            if(words.length + shift > maxWords) {
+                return -1;
+            }
+            final long[] grown = new long[words.length + shift];
+            System.arraycopy(words, 0, grown, shift, words.length);
+            words = grown;
+            baseWord = absoluteWord;
+            absorbSparse();
+        } else if(absoluteWord - baseWord >= words.length) {
+            final int numWords = absoluteWord - baseWord + 1;
+            if(numWords > maxWords) {
+                return -1;
+            }
+            words = Arrays.copyOf(words, Math.min(maxWords, Math.max(numWords, words.length + (words.length >> 1))));
+            absorbSparse();
+        }
+        return absoluteWord - baseWord;
+    }
+
+    // Moves the values in sparse that are now inside the range of the words into them
+    private void absorbSparse() {
+        if(sparse == null) {
+            return;
+        }
+        final IntIterator iter = sparse.iterator();
+        while(iter.hasNext()) {
+            final int k = iter.nextInt();
+            final int word = (k >> 6) - baseWord;
+            if(word >= 0 && word < words.length) {
+                words[word] |= 1L << k;
+                iter.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.drakonkinst.contextualdialogue.util;
+
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+import java.util.Arrays;
+
+/**
+ * Creates list facts using the smallest representation that fits their values.
+ * Small lists are stored as a sorted array, large lists of cached strings as a
+ * bitset, and anything else falls back to a hash set.
+ */
+public final class CompactIntSets {
+    public static final int MAX_SORTED_SIZE = 8;
+
+    private CompactIntSets() {}
+
+    public static IntSet copyOf(final IntCollection values) {
+        return of(values.toIntArray());
+    }
+
+    // Takes ownership of the array, which is sorted in place
+    public static IntSet of(final int... values) {
+        Arrays.sort(values);
+        int size = 0;
+        for(int i = 0; i < values.length; ++i) {
+            if(i == 0 || values[i] != values[i - 1]) {
+                values[size++] = values[i];
+            }
+        }
+
+        if(size <= MAX_SORTED_SIZE) {
+            return new SortedIntSet(values, size);
+        }
+
+        if(fitsBitSet(values, size)) {
+            final BitIntSet bitSet = new BitIntSet(values[0], values[size - 1]);
+            for(int i = 0; i < size; ++i) {
+                bitSet.add(values[i]);
+            }
+            return bitSet;
+        }
+
+        final IntSet hashSet = new IntOpenHashSet(size);
+        for(int i = 0; i < size; ++i) {
+            hashSet.add(values[i]);
+        }
+        return hashSet;
+    }
+
+    // Returns true if the first size sorted values are cached strings that a BitIntSet can hold in no more than one
+    // word per item
+    public static boolean fitsBitSet(final int[] sortedValues, final int size) {
+        if(size == 0 || sortedValues[0] < StringCache.INITIAL_ID) {
+            return false;
+        }
+        final int numWords = (sortedValues[size - 1] >> 6) - (StringCache.INITIAL_ID >> 6) + 1;
+        return numWords <= size;
+    }
+}
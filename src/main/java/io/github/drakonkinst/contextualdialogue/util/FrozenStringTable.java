@@ -0,0 +1,307 @@
+package io.github.drakonkinst.contextualdialogue.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read-only table of strings, built once from the strings known when a
+ * database is loaded and used as the base of a StringCache.
+ * <p>
+ * The strings are stored back to back as UTF-8 in a single buffer, and found
+ * with a perfect hash: strings are grouped into small buckets, and each bucket
+ * is given a seed that sends all of its strings to free slots. Finding a string
+ * therefore takes a single probe and never locks. The buffer can be saved to a
+ * file and memory-mapped when the database is next loaded, so the table does
+ * not have to be rebuilt or copied onto the heap.
+ */
+public final class FrozenStringTable {
+    private static final int MAGIC = 0x43445354;  // "CDST"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final int STRINGS_PER_BUCKET = 4;
+    private static final int MAX_SEED = 1 << 20;
+    private static final int EMPTY_SLOT = -1;
+
+    /**
+     * Builds a table from distinct strings, each of which is found at its
+     * index in the array.
+     *
+     * @param strings The strings to store.
+     * @return The built table.
+     */
+    public static FrozenStringTable of(final String[] strings) {
+        final int size = strings.length;
+        final int numBuckets = tableSizeFor(Math.max(1, size / STRINGS_PER_BUCKET));
+        final int numSlots = tableSizeFor(Math.max(1, size + (size >> 2)));
+
+        final long[] hashes = new long[size];
+        final List<List<Integer>> buckets = new ArrayList<>(numBuckets);
+        for(int i = 0; i < numBuckets; ++i) {
+            buckets.add(new ArrayList<>(STRINGS_PER_BUCKET));
+        }
+        for(int i = 0; i < size; ++i) {
+            if(strings[i] == null) {
+                throw new IllegalArgumentException("Error: Cannot freeze a null string!");
+            }
+            hashes[i] = hash(strings[i]);
+            buckets.get((int) hashes[i] & (numBuckets - 1)).add(i);
+        }
+
+        // Place the largest buckets first, while most slots are still free
+        final Integer[] order = new Integer[numBuckets];
+        for(int i = 0; i < numBuckets; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> buckets.get(b).size() - buckets.get(a).size());
+
+        final int[] seeds = new int[numBuckets];
+        final int[] slots = new int[numSlots];
+        Arrays.fill(slots, EMPTY_SLOT);
+        for(int bucket : order) {
+            final List<Integer> members = buckets.get(bucket);
+            if(members.isEmpty()) {
+                break;
+            }
+            final int[] placed = new int[members.size()];
+            int seed = 0;
+            while(!tryPlace(members, seed, hashes, slots, placed)) {
+                if(++seed >= MAX_SEED) {
+                    throw new IllegalArgumentException("Error: Failed to build a perfect hash, the strings may contain duplicates!");
+                }
+            }
+            seeds[bucket] = seed;
+        }
+
+        final byte[][] encoded = new byte[size][];
+        int arenaLength = 0;
+        for(int i = 0; i < size; ++i) {
+            encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            arenaLength += encoded[i].length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * (numBuckets + numSlots + size + 1) + arenaLength);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(numBuckets).putInt(numSlots).putInt(arenaLength);
+        for(int seed : seeds) {
+            buffer.putInt(seed);
+        }
+        for(int slot : slots) {
+            buffer.putInt(slot);
+        }
+        int offset = 0;
+        for(byte[] bytes : encoded) {
+            buffer.putInt(offset);
+            offset += bytes.length;
+        }
+        buffer.putInt(offset);
+        for(byte[] bytes : encoded) {
+            buffer.put(bytes);
+        }
+        return new FrozenStringTable(buffer.clear());
+    }
+
+    /**
+     * Maps a table saved by save() into memory. The file must not be
+     * modified while the table is in use.
+     *
+     * @param path The file to load.
+     * @return The loaded table.
+     * @throws IOException If the file could not be read.
+     */
+    public static FrozenStringTable load(final Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(!isValid(buffer)) {
+                throw new IOException("File \"" + path + "\" is not a valid string table");
+            }
+            return new FrozenStringTable(buffer);
+        }
+    }
+
+    // Checks everything that lookups trust, so a corrupted file fails to load instead of failing on a later lookup
+    private static boolean isValid(final ByteBuffer buffer) {
+        if(buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return false;
+        }
+        final int size = buffer.getInt(8);
+        final int numBuckets = buffer.getInt(12);
+        final int numSlots = buffer.getInt(16);
+        final int arenaLength = buffer.getInt(20);
+        if(size < 0 || !isPowerOfTwo(numBuckets) || !isPowerOfTwo(numSlots) || numSlots < size || arenaLength < 0
+                || buffer.capacity() != HEADER_BYTES + 4L * ((long) numBuckets + numSlots + size + 1) + arenaLength) {
+            return false;
+        }
+
+        // Every slot must be empty or hold a string, and the strings must lie back to back within the arena
+        final int slotsStart = HEADER_BYTES + 4 * numBuckets;
+        for(int i = 0; i < numSlots; ++i) {
+            final int index = buffer.getInt(slotsStart + 4 * i);
+            if(index != EMPTY_SLOT && (index < 0 || index >= size)) {
+                return false;
+            }
+        }
+        final int offsetsStart = slotsStart + 4 * numSlots;
+        int prev = 0;
+        for(int i = 0; i <= size; ++i) {
+            final int offset = buffer.getInt(offsetsStart + 4 * i);
+            if(offset < prev || (i == 0 && offset != 0)) {
+                return false;
+            }
+            prev = offset;
+        }
+        return prev == arenaLength;
+    }
+
+    private static boolean isPowerOfTwo(final int n) {
+        return n > 0 && (n & (n - 1)) == 0;
+    }
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int bucketMask;
+    private final int slotMask;
+    private final int seedsStart;
+    private final int slotsStart;
+    private final int offsetsStart;
+    private final int arenaStart;
+    // Decoded strings, filled in as they are looked up. Strings are immutable, so racing writes are harmless.
+    private final String[] decoded;
+
+    private FrozenStringTable(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        final int numBuckets = buffer.getInt(12);
+        final int numSlots = buffer.getInt(16);
+        this.bucketMask = numBuckets - 1;
+        this.slotMask = numSlots - 1;
+        this.seedsStart = HEADER_BYTES;
+        this.slotsStart = seedsStart + 4 * numBuckets;
+        this.offsetsStart = slotsStart + 4 * numSlots;
+        this.arenaStart = offsetsStart + 4 * (size + 1);
+        this.decoded = new String[size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Returns the index of the string, or -1 if it is not in this table
+    public int indexOf(final String str) {
+        if(size == 0) {
+            return -1;
+        }
+        final long hash = hash(str);
+        final int seed = buffer.getInt(seedsStart + 4 * ((int) hash & bucketMask));
+        final int index = buffer.getInt(slotsStart + 4 * slotFor(hash, seed, slotMask));
+        if(index == EMPTY_SLOT || !matches(index, str)) {
+            return -1;
+        }
+        return index;
+    }
+
+    public String get(final int index) {
+        String str = decoded[index];
+        if(str == null) {
+            final int start = buffer.getInt(offsetsStart + 4 * index);
+            final int length = buffer.getInt(offsetsStart + 4 * (index + 1)) - start;
+            final byte[] bytes = new byte[length];
+            buffer.get(arenaStart + start, bytes);
+            str = new String(bytes, StandardCharsets.UTF_8);
+            decoded[index] = str;
+        }
+        return str;
+    }
+
+    /**
+     * Writes this table to a file, which can later be mapped back in with
+     * load(). The table is written to a temporary file and then moved into
+     * place, so that tables already mapped from the old file are unaffected.
+     *
+     * @param path The file to write.
+     * @throws IOException If the file could not be written.
+     */
+    public void save(final Path path) throws IOException {
+        final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer source = buffer.duplicate().clear();
+            while(source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns the number of bytes used by the table, not counting decoded strings
+    public int getSizeInBytes() {
+        return buffer.capacity();
+    }
+
+    // Compares the stored bytes against the string directly, only decoding them if either is not ASCII
+    private boolean matches(final int index, final String str) {
+        final int start = arenaStart + buffer.getInt(offsetsStart + 4 * index);
+        final int length = arenaStart + buffer.getInt(offsetsStart + 4 * (index + 1)) - start;
+        if(length != str.length()) {
+            return length > str.length() && str.equals(get(index));
+        }
+        for(int i = 0; i < length; ++i) {
+            final byte b = buffer.get(start + i);
+            final char c = str.charAt(i);
+            if(b < 0 || c >= 0x80) {
+                return str.equals(get(index));
+            }
+            if(b != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean tryPlace(final List<Integer> members, final int seed, final long[] hashes, final int[] slots, final int[] placed) {
+        final int slotMask = slots.length - 1;
+        int numPlaced = 0;
+        for(int member : members) {
+            final int slot = slotFor(hashes[member], seed, slotMask);
+            if(slots[slot] != EMPTY_SLOT) {
+                for(int i = 0; i < numPlaced; ++i) {
+                    slots[placed[i]] = EMPTY_SLOT;
+                }
+                return false;
+            }
+            slots[slot] = member;
+            placed[numPlaced++] = slot;
+        }
+        return true;
+    }
+
+    private static int slotFor(final long hash, final int seed, final int slotMask) {
+        return (int) mix(hash + seed * 0x9E3779B97F4A7C15L) & slotMask;
+    }
+
+    // 64-bit FNV-1a over the chars of the string, which is stable across runs unlike identity hashes
+    private static long hash(final String str) {
+        long hash = 0xCBF29CE484222325L;
+        for(int i = 0; i < str.length(); ++i) {
+            hash = (hash ^ str.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+        x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return x ^ (x >>> 33);
+    }
+
+    private static int tableSizeFor(final int n) {
+        return Integer.highestOneBit(Math.max(1, n - 1)) << 1;
+    }
+}
@@ -0,0 +1,108 @@
+package io.github.drakonkinst.contextualdialogue.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Key-id bidirectional cache, used to address context facts by integer instead of by String.
+// Unlike StringCache, key ids are never reset since they are baked into context tables and rules.
+// Like StringCache, it is safe to use from multiple threads, and looking up a key that is already cached never blocks.
+public final class KeyCache {
+    public static final int NULL = 0;
+
+    // Keys are looked up in fixed-size pages, which are allocated as ids are handed out and never move
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int INITIAL_PAGES = 4;
+
+    private static final ConcurrentMap<String, Integer> CACHE = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(NULL);
+    private static final Object PAGE_LOCK = new Object();
+    // Replaced with a larger copy when it runs out of pages, which only happens while holding the lock
+    private static volatile AtomicReferenceArray<AtomicReferenceArray<String>> pages = new AtomicReferenceArray<>(INITIAL_PAGES);
+
+    private KeyCache() {}
+
+    // Returns the id for the key, assigning a new one if the key has not been seen before
+    public static int cacheKey(final String key) {
+        if(key == null) {
+            return NULL;
+        }
+        final Integer id = CACHE.get(key);
+        if(id != null) {
+            return id;
+        }
+        // Only threads caching the same new key wait for each other
+        return CACHE.computeIfAbsent(key, KeyCache::allocate);
+    }
+
+    // Returns the id for the key without caching it, or NULL if the key has never been cached
+    public static int getId(final String key) {
+        if(key == null) {
+            return NULL;
+        }
+        final Integer id = CACHE.get(key);
+        return id == null ? NULL : id;
+    }
+
+    public static String lookup(final int id) {
+        if(id <= NULL) {
+            return null;
+        }
+        final AtomicReferenceArray<String> page = getPage(id >>> PAGE_BITS);
+        if(page == null) {
+            return null;
+        }
+        return page.get(id & PAGE_MASK);
+    }
+
+    public static int getSize() {
+        return CACHE.size();
+    }
+
+    // Assigns the next id to the key, publishing it for lookup before the id is returned
+    private static Integer allocate(final String key) {
+        final int id = NEXT_ID.incrementAndGet();
+        if(id <= NULL) {
+            throw new IllegalStateException("Error: KeyCache is full!");
+        }
+        getOrCreatePage(id >>> PAGE_BITS).set(id & PAGE_MASK, key);
+        return id;
+    }
+
+    private static AtomicReferenceArray<String> getPage(final int pageIndex) {
+        final AtomicReferenceArray<AtomicReferenceArray<String>> currentPages = pages;
+        if(pageIndex >= currentPages.length()) {
+            return null;
+        }
+        return currentPages.get(pageIndex);
+    }
+
+    private static AtomicReferenceArray<String> getOrCreatePage(final int pageIndex) {
+        final AtomicReferenceArray<String> existing = getPage(pageIndex);
+        if(existing != null) {
+            return existing;
+        }
+
+        // A new page is needed once every PAGE_SIZE ids, so this rarely contends
+        synchronized(PAGE_LOCK) {
+            AtomicReferenceArray<AtomicReferenceArray<String>> grownPages = pages;
+            if(pageIndex >= grownPages.length()) {
+                final AtomicReferenceArray<AtomicReferenceArray<String>> copy = new AtomicReferenceArray<>(Math.max(pageIndex + 1, grownPages.length() << 1));
+                for(int i = 0; i < grownPages.length(); ++i) {
+                    copy.set(i, grownPages.get(i));
+                }
+                pages = copy;
+                grownPages = copy;
+            }
+            AtomicReferenceArray<String> page = grownPages.get(pageIndex);
+            if(page == null) {
+                page = new AtomicReferenceArray<>(PAGE_SIZE);
+                grownPages.set(pageIndex, page);
+            }
+            return page;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.drakonkinst.contextualdialogue.util;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntSet;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of ints stored as a sorted array, which is much smaller than a hash
+ * set for the handful of items most lists hold. Lookups scan the array, and
+ * switch to a binary search once the set grows past a few cache lines.
+ */
+public class SortedIntSet extends AbstractIntSet implements Serializable {
+    private static final int MAX_LINEAR_SCAN = 16;
+    private static final int[] EMPTY = new int[0];
+
+    private int[] items;
+    private int size;
+
+    public SortedIntSet() {
+        this.items = EMPTY;
+        this.size = 0;
+    }
+
+    // Takes ownership of the array, whose first size items must be sorted and distinct
+    SortedIntSet(final int[] items, final int size) {
+        this.items = items;
+        this.size = size;
+    }
+
+    @Override
+    public boolean contains(final int k) {
+        return indexOf(k) >= 0;
+    }
+
+    /**
+     * Returns true if this set contains any of the given values,
+     * by merging the two sorted arrays.
+     *
+     * @param sortedValues The values to check, which must be sorted.
+     * @return True if any value is in this set.
+     */
+    public boolean containsAny(final int[] sortedValues) {
+        int i = 0;
+        int j = 0;
+        while(i < size && j < sortedValues.length) {
+            final int item = items[i];
+            final int value = sortedValues[j];
+            if(item == value) {
+                return true;
+            }
+            if(item < value) {
+                ++i;
+            } else {
+                ++j;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean add(final int k) {
+        final int index = indexOf(k);
+        if(index >= 0) {
+            return false;
+        }
+        final int insertAt = -(index + 1);
+        if(size == items.length) {
+            items = Arrays.copyOf(items, Math.max(4, size << 1));
+        }
+        System.arraycopy(items, insertAt, items, insertAt + 1, size - insertAt);
+        items[insertAt] = k;
+        ++size;
+        return true;
+    }
+
+    @Override
+    public boolean remove(final int k) {
+        final int index = indexOf(k);
+        if(index < 0) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+    }
+
+    @Override
+    public int[] toIntArray() {
+        return Arrays.copyOf(items, size);
+    }
+
+    @Override
+    public IntIterator iterator() {
+        return new IntIterator() {
+            private int next = 0;
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public int nextInt() {
+                if(next >= size) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                return items[next++];
+            }
+
+            @Override
+            public void remove() {
+                if(last < 0) {
+                    throw new IllegalStateException();
+                }
+                removeAt(last);
+                next = last;
+                last = -1;
+            }
+        };
+    }
+
+    // Returns the index of the item, or (-(insertion point) - 1) if it is not present
+    private int indexOf(final int k) {
+        if(size > MAX_LINEAR_SCAN) {
+            return Arrays.binarySearch(items, 0, size, k);
+        }
+        for(int i = 0; i < size; ++i) {
+            final int item = items[i];
+            if(item >= k) {
+                return item == k ? i : -(i + 1);
+            }
+        }
+        return -(size + 1);
+    }
+
+    private void removeAt(final int index) {
+        System.arraycopy(items, index + 1, items, index, size - index - 1);
+        --size;
+    }
+}
@@ -2,55 +2,419 @@ package io.github.drakonkinst.contextualdialogue.util;
 
 
 import io.github.drakonkinst.commonutil.MyLogger;
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
-// String-symbol bidirectional cache
-public final class StringCache {
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+// String-symbol bidirectional cache, which is safe to use from multiple threads.
+// Looking up a symbol or a string that is already cached never blocks, and new ids are allocated atomically.
+// Each speechbank database owns its own cache, identified by a generation that is unique within the process,
+// so that reloading a database creates a new cache rather than invalidating the tables of every other one.
+public final class StringCache implements Serializable {
     public static final int NULL = 0;
     public static final int INITIAL_ID = 9000;
 
-    private static final Object2IntMap<String> CACHE = new Object2IntOpenHashMap<>();
-    private static final Int2ObjectMap<String> LOOKUP = new Int2ObjectOpenHashMap<>();
-    private static int nextId = INITIAL_ID - 1;
-    private static int cacheId = 0;
+    // Symbols are looked up in fixed-size pages, which are allocated as ids are handed out and never move
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int INITIAL_PAGES = 4;
+
+    // Epoch of a string that has been evicted. Its id is never handed out again.
+    private static final int EVICTED = Integer.MIN_VALUE;
+
+    private static final AtomicInteger nextGeneration = new AtomicInteger();
+    private static final StringCache DEFAULT = new StringCache();
 
-    private StringCache() {}
+    // Returns the cache used by tables and databases that are not given one explicitly
+    public static StringCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Something that stores symbols from a StringCache, such as a context
+     * table. Holders are tracked so that evict() can tell which strings
+     * are still in use.
+     */
+    public interface Holder {
+        // Visits every symbol stored by the holder. Values that are not symbols are ignored.
+        void forEachSymbol(IntConsumer action);
+    }
 
-    public static int cacheString(final String str) {
+    private static final class Page {
+        private final AtomicReferenceArray<String> strings = new AtomicReferenceArray<>(PAGE_SIZE);
+        // The last epoch each string was cached in, or EVICTED
+        private final AtomicIntegerArray epochs = new AtomicIntegerArray(PAGE_SIZE);
+    }
+
+    // Replaces pages whose strings have all been evicted, so their memory can be reclaimed
+    private static final Page EVICTED_PAGE = new Page();
+
+    static {
+        for(int i = 0; i < PAGE_SIZE; ++i) {
+            EVICTED_PAGE.epochs.set(i, EVICTED);
+        }
+    }
+
+    private final ConcurrentMap<String, Integer> cache = new ConcurrentHashMap<>();
+    // Replaced with a larger copy when it runs out of pages, which only happens while holding the lock
+    private volatile AtomicReferenceArray<Page> pages = new AtomicReferenceArray<>(INITIAL_PAGES);
+    private final AtomicInteger nextId;
+    private final int generation;
+    // Strings known ahead of time, which take the first ids. Only strings missing from it are added to the map.
+    private final FrozenStringTable frozen;
+
+    // Eviction state. Strings with ids below firstEvictableId are never evicted.
+    private final Queue<WeakReference<Holder>> holders = new ConcurrentLinkedQueue<>();
+    private volatile boolean evicting = false;
+    private volatile int firstEvictableId = Integer.MAX_VALUE;
+    private volatile int epoch = 0;
+    private volatile int numReferenced = 0;
+    private volatile int numReclaimable = 0;
+    private volatile long numEvicted = 0;
+
+    public StringCache() {
+        this(null);
+    }
+
+    public StringCache(final FrozenStringTable frozen) {
+        this.frozen = frozen;
+        this.nextId = new AtomicInteger(INITIAL_ID - 1 + getFrozenSize());
+        this.generation = nextGeneration.incrementAndGet();
+    }
+
+    public int cacheString(final String str) {
         if(str == null) {
             return NULL;
         }
-        if(CACHE.containsKey(str)) {
-            return CACHE.getInt(str);
+        if(frozen != null) {
+            final int index = frozen.indexOf(str);
+            if(index >= 0) {
+                return INITIAL_ID + index;
+            }
+        }
+        while(true) {
+            Integer id = cache.get(str);
+            if(id == null) {
+                // Only threads caching the same new string wait for each other
+                id = cache.computeIfAbsent(str, this::allocate);
+            }
+            if(id < firstEvictableId || touch(id)) {
+                return id;
+            }
+            // The string was evicted while it was being looked up, so it is cached again under a new id
+            cache.remove(str, id);
         }
-        CACHE.put(str, ++nextId);
-        LOOKUP.put(nextId, str);
-        return nextId;
     }
 
-    public static String lookup(final int id) {
+    public String lookup(final int id) {
         if(id == NULL) {
             MyLogger.warning("StringCache failed to string value for symbol " + id);
             return null;
         }
-        return LOOKUP.get(id);
+        final int index = id - INITIAL_ID;
+        if(index < 0) {
+            return null;
+        }
+        if(index < getFrozenSize()) {
+            return frozen.get(index);
+        }
+        final Page page = getPage(index >>> PAGE_BITS);
+        if(page == null) {
+            return null;
+        }
+        return page.strings.get(index & PAGE_MASK);
     }
 
-    // Dangerous!
-    public static void resetCache() {
-        CACHE.clear();
-        LOOKUP.clear();
-        ++cacheId;
+    public int getSize() {
+        return getFrozenSize() + cache.size();
     }
 
-    public static int getSize() {
-        return CACHE.size();
+    // Returns the number of strings in the frozen table, which were not added at runtime
+    public int getFrozenSize() {
+        return frozen == null ? 0 : frozen.size();
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Builds a frozen table of every string in this cache that cannot be
+     * evicted, which keeps their ids when used as the base of a new cache.
+     * Should not be called while other threads are caching strings.
+     *
+     * @return The frozen table.
+     */
+    public FrozenStringTable freeze() {
+        return FrozenStringTable.of(toArray(evicting ? firstEvictableId - 1 : nextId.get()));
+    }
+
+    /* Eviction */
+
+    /**
+     * Allows strings cached from now on to be evicted once no holder stores
+     * them, such as player names that are no longer in any context table.
+     * Every string already in the cache, such as those in the speechbanks,
+     * is kept forever. Ids of evicted strings are never reused, so a stale
+     * id looks up to null instead of to a different string.
+     */
+    public synchronized void enableEviction() {
+        if(!evicting) {
+            firstEvictableId = nextId.get() + 1;
+            evicting = true;
+        }
     }
 
-    public static int getCacheId() {
-        return cacheId;
+    public boolean isEvicting() {
+        return evicting;
+    }
+
+    // Registers a holder whose symbols keep their strings from being evicted, until it is garbage collected
+    public void track(final Holder holder) {
+        holders.add(new WeakReference<>(holder));
+    }
+
+    /**
+     * Starts a new epoch, evicting every evictable string that is not stored
+     * by any live holder and has not been cached during the previous epoch.
+     * The grace period protects strings that are in use without being stored,
+     * such as while a query is running, so eviction should run far less often
+     * than queries do. Holders are read without locking, so this should be
+     * called from the thread that updates them.
+     *
+     * @return The number of strings evicted.
+     */
+    public synchronized int evict() {
+        if(!evicting) {
+            return 0;
+        }
+        final int current = ++epoch;
+        final int first = firstEvictableId;
+        final int last = nextId.get();
+        if(last < first) {
+            return 0;
+        }
+
+        final long[] referenced = new long[((last - first) >>> 6) + 1];
+        final Iterator<WeakReference<Holder>> iter = holders.iterator();
+        while(iter.hasNext()) {
+            final Holder holder = iter.next().get();
+            if(holder == null) {
+                iter.remove();
+                continue;
+            }
+            holder.forEachSymbol(id -> {
+                if(id >= first && id <= last) {
+                    referenced[(id - first) >>> 6] |= 1L << (id - first);
+                }
+            });
+        }
+
+        int referencedCount = 0;
+        int reclaimableCount = 0;
+        int evictedCount = 0;
+        int id = first;
+        while(id <= last) {
+            final int pageIndex = (id - INITIAL_ID) >>> PAGE_BITS;
+            final int pageStart = INITIAL_ID + (pageIndex << PAGE_BITS);
+            final int pageEnd = pageStart + PAGE_SIZE;
+            final Page page = getPage(pageIndex);
+            if(page == null || page == EVICTED_PAGE) {
+                id = pageEnd;
+                continue;
+            }
+            boolean isEmpty = true;
+            for(; id < pageEnd && id <= last; ++id) {
+                final int slot = (id - INITIAL_ID) & PAGE_MASK;
+                final String str = page.strings.get(slot);
+                final int touched = page.epochs.get(slot);
+                if(str == null) {
+                    // Either evicted, or still being added by another thread
+                    isEmpty &= touched == EVICTED;
+                    continue;
+                }
+                if((referenced[(id - first) >>> 6] & (1L << (id - first))) != 0) {
+                    ++referencedCount;
+                    isEmpty = false;
+                } else if(touched <= current - 2 && page.epochs.compareAndSet(slot, touched, EVICTED)) {
+                    cache.remove(str, id);
+                    page.strings.set(slot, null);
+                    ++evictedCount;
+                } else {
+                    ++reclaimableCount;
+                    isEmpty = false;
+                }
+            }
+            // Only pages whose ids are all evictable and already handed out can be dropped
+            if(isEmpty && pageStart >= first && pageEnd - 1 <= last) {
+                pages.set(pageIndex, EVICTED_PAGE);
+            }
+        }
+
+        numReferenced = referencedCount;
+        numReclaimable = reclaimableCount;
+        numEvicted += evictedCount;
+        return evictedCount;
+    }
+
+    // Returns the number of strings that can never be evicted
+    public int getNumPinned() {
+        return evicting ? firstEvictableId - INITIAL_ID : getSize();
+    }
+
+    // Returns the number of evictable strings that were stored by a holder during the last eviction
+    public int getNumReferenced() {
+        return numReferenced;
+    }
+
+    // Returns the number of evictable strings that no holder stored during the last eviction, but are still cached
+    public int getNumReclaimable() {
+        return numReclaimable;
+    }
+
+    public long getNumEvicted() {
+        return numEvicted;
+    }
+
+    // Marks the string as used in the current epoch, returning false if it has already been evicted
+    private boolean touch(final int id) {
+        final int index = id - INITIAL_ID;
+        final Page page = getPage(index >>> PAGE_BITS);
+        if(page == null) {
+            return false;
+        }
+        final int slot = index & PAGE_MASK;
+        final int current = epoch;
+        while(true) {
+            final int touched = page.epochs.get(slot);
+            if(touched == EVICTED) {
+                return false;
+            }
+            if(touched >= current || page.epochs.compareAndSet(slot, touched, current)) {
+                return true;
+            }
+        }
+    }
+
+    // Assigns the next id to the string, publishing it for lookup before the id is returned
+    private Integer allocate(final String str) {
+        final int id = nextId.incrementAndGet();
+        if(id < INITIAL_ID) {
+            throw new IllegalStateException("Error: StringCache is full!");
+        }
+        final int index = id - INITIAL_ID;
+        final Page page = getOrCreatePage(index >>> PAGE_BITS);
+        page.epochs.set(index & PAGE_MASK, epoch);
+        page.strings.set(index & PAGE_MASK, str);
+        return id;
+    }
+
+    // Used when reading a cache back in, so that an evicted string's id is not given to another string
+    private void allocateEvicted() {
+        final int index = nextId.incrementAndGet() - INITIAL_ID;
+        getOrCreatePage(index >>> PAGE_BITS).epochs.set(index & PAGE_MASK, EVICTED);
+    }
+
+    private Page getPage(final int pageIndex) {
+        final AtomicReferenceArray<Page> currentPages = pages;
+        if(pageIndex >= currentPages.length()) {
+            return null;
+        }
+        return currentPages.get(pageIndex);
+    }
+
+    private Page getOrCreatePage(final int pageIndex) {
+        final Page existing = getPage(pageIndex);
+        if(existing != null) {
+            return existing;
+        }
+
+        // A new page is needed once every PAGE_SIZE ids, so this rarely contends
+        synchronized(this) {
+            AtomicReferenceArray<Page> grownPages = pages;
+            if(pageIndex >= grownPages.length()) {
+                final AtomicReferenceArray<Page> copy = new AtomicReferenceArray<>(Math.max(pageIndex + 1, grownPages.length() << 1));
+                for(int i = 0; i < grownPages.length(); ++i) {
+                    copy.set(i, grownPages.get(i));
+                }
+                pages = copy;
+                grownPages = copy;
+            }
+            Page page = grownPages.get(pageIndex);
+            if(page == null) {
+                page = new Page();
+                grownPages.set(pageIndex, page);
+            }
+            return page;
+        }
+    }
+
+    private boolean isEvicted(final int id) {
+        final int index = id - INITIAL_ID;
+        if(index < getFrozenSize()) {
+            return false;
+        }
+        final Page page = getPage(index >>> PAGE_BITS);
+        return page != null && page.epochs.get(index & PAGE_MASK) == EVICTED;
+    }
+
+    // Returns every string up to the given id in id order, with evicted strings left as null
+    private String[] toArray(final int lastId) {
+        final String[] strings = new String[lastId - INITIAL_ID + 1];
+        for(int i = 0; i < strings.length; ++i) {
+            final int id = INITIAL_ID + i;
+            String str = lookup(id);
+            // Wait for strings that are still being added
+            while(str == null && !isEvicted(id)) {
+                Thread.onSpinWait();
+                str = lookup(id);
+            }
+            strings[i] = str;
+        }
+        return strings;
+    }
+
+    // Strings are written in id order, so that reading them back into a new cache assigns the same ids.
+    // The new cache gets a new generation, since it is independent of the one that was written.
+    private Object writeReplace() {
+        return new SerializedForm(toArray(nextId.get()), evicting ? firstEvictableId : NULL);
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private final String[] strings;
+        private final int firstEvictableId;
+
+        private SerializedForm(final String[] strings, final int firstEvictableId) {
+            this.strings = strings;
+            this.firstEvictableId = firstEvictableId;
+        }
+
+        private Object readResolve() {
+            final StringCache stringCache = new StringCache();
+            for(int i = 0; i < strings.length; ++i) {
+                if(INITIAL_ID + i == firstEvictableId) {
+                    stringCache.enableEviction();
+                }
+                if(strings[i] == null) {
+                    stringCache.allocateEvicted();
+                } else {
+                    stringCache.cacheString(strings[i]);
+                }
+            }
+            if(firstEvictableId != NULL) {
+                stringCache.enableEviction();
+            }
+            return stringCache;
+        }
     }
 }